@@ -0,0 +1,74 @@
+import java.io.File;
+import java.util.List;
+
+import org.opencv.core.Mat;
+
+/**
+ * The frames a benchmark cycles through.
+ *
+ * <p>Recorded frames are loaded from {@code <frames.dir>/<resolution>}. The
+ * synthetic frames are always included so every run has the same baseline.
+ */
+public final class BenchmarkFrames {
+  private static final int kSyntheticFrames = 12;
+
+  private final List<Mat> frames;
+  private int next;
+
+  private BenchmarkFrames(List<Mat> frames) {
+    this.frames = frames;
+  }
+
+  /**
+   * Load the frames for a resolution.
+   * @param resolution the resolution as "<width>x<height>"
+   */
+  public static BenchmarkFrames load(String resolution) {
+    String[] size = resolution.split("x");
+    int width = Integer.parseInt(size[0]);
+    int height = Integer.parseInt(size[1]);
+
+    List<Mat> frames = SyntheticFrames.generateSet(width, height, kSyntheticFrames);
+    String directory = System.getProperty("frames.dir");
+    if (directory != null) {
+      for (Mat frame : SyntheticFrames.load(new File(directory, resolution))) {
+        if (frame.cols() == width && frame.rows() == height) {
+          frames.add(frame);
+        } else {
+          frame.release();
+        }
+      }
+    }
+    return new BenchmarkFrames(frames);
+  }
+
+  public int size() {
+    return frames.size();
+  }
+
+  public Mat get(int index) {
+    return frames.get(index);
+  }
+
+  /**
+   * The index of the next frame, cycling through all frames.
+   */
+  public int nextIndex() {
+    int index = next;
+    next = (next + 1) % frames.size();
+    return index;
+  }
+
+  public Mat next() {
+    return frames.get(nextIndex());
+  }
+
+  /**
+   * Release the native memory of every frame.
+   */
+  public void release() {
+    for (Mat frame : frames) {
+      frame.release();
+    }
+  }
+}
@@ -0,0 +1,65 @@
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.JsonObject;
+
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link CardinalPipeline#blur} for every {@link CardinalPipeline.BlurType}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BlurBenchmark {
+  @Param({"320x240", "640x480"})
+  public String resolution;
+
+  @Param({"Box Blur", "Gaussian Blur", "Median Filter", "Bilateral Filter"})
+  public String blurType;
+
+  private BenchmarkFrames frames;
+  private CardinalPipeline pipeline;
+  private PipelineConfig config;
+  private Mat output;
+
+  /**
+   * Load the frames and build the config for the blur type.
+   */
+  @Setup
+  public void setup() {
+    frames = BenchmarkFrames.load(resolution);
+    pipeline = new CardinalPipeline();
+    JsonObject overrides = new JsonObject();
+    overrides.addProperty("blur type", blurType);
+    config = PipelineConfig.kDefault.with(overrides);
+    output = new Mat();
+  }
+
+  @TearDown
+  public void tearDown() {
+    output.release();
+    pipeline.release();
+    frames.release();
+  }
+
+  @Benchmark
+  public Mat blur() {
+    pipeline.blur(frames.next(), config.blurType, config.blurRadius, config.blurKernelSize, output);
+    return output;
+  }
+}
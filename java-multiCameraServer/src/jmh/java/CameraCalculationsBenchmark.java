@@ -0,0 +1,73 @@
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The per-target {@link CameraCalculations} done for every published target,
+ * against the batch {@link CameraModel#compute} of the same targets.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CameraCalculationsBenchmark {
+  private static final int kTargets = 64;
+
+  private final double[] centerX = new double[kTargets];
+  private final double[] targetWidth = new double[kTargets];
+  private final double[] xOffset = new double[kTargets];
+  private final double[] distance = new double[kTargets];
+  private final double[] angle = new double[kTargets];
+  private final CameraModel model = new CameraModel(320, 240, CameraModel.kDefaultFov);
+
+  /**
+   * Spread the targets over the 320 pixel wide frame.
+   */
+  @Setup
+  public void setup() {
+    Random random = new Random(811);
+    for (int i = 0; i < kTargets; i++) {
+      targetWidth[i] = 10 + random.nextInt(150);
+      centerX[i] = targetWidth[i] / 2 + random.nextDouble() * (320 - targetWidth[i]);
+    }
+  }
+
+  /**
+   * xOffset, distance and angle of one target.
+   */
+  @Benchmark
+  @OperationsPerInvocation(kTargets)
+  public void target(Blackhole blackhole) {
+    for (int i = 0; i < kTargets; i++) {
+      blackhole.consume(CameraCalculations.getXOffset(targetWidth[i], centerX[i]));
+      blackhole.consume(CameraCalculations.getDistance(targetWidth[i], centerX[i]));
+      blackhole.consume(CameraCalculations.getHorizontalDegreesToPixels(centerX[i]));
+    }
+  }
+
+  /**
+   * The same targets through the lookup tables of a camera model.
+   */
+  @Benchmark
+  @OperationsPerInvocation(kTargets)
+  public void model(Blackhole blackhole) {
+    model.compute(kTargets, centerX, targetWidth, xOffset, distance, angle);
+    blackhole.consume(xOffset);
+    blackhole.consume(distance);
+    blackhole.consume(angle);
+  }
+}
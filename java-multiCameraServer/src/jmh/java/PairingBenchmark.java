@@ -0,0 +1,94 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Point;
+import org.opencv.core.RotatedRect;
+import org.opencv.core.Size;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link TapePairing} against the previous insertion sort and neighbor
+ * pairing, on cluttered scenes: a few real tape pairs among random noise
+ * rectangles, in contour order.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PairingBenchmark {
+  @Param({"10", "100", "1000"})
+  public int contours;
+
+  private final List<RotatedRect> tapes = new ArrayList<>();
+  private final ArrayList<RotatedRect> sorted = new ArrayList<>();
+  private final List<GoalTarget> targets = new ArrayList<>();
+  private final TapePairing pairing = new TapePairing();
+
+  /**
+   * One real pair per ten contours, the rest noise, over a 1280x720 frame.
+   */
+  @Setup
+  public void setup() {
+    Random random = new Random(811);
+    for (int i = 0; i < contours / 10; i++) {
+      double x = 40 + random.nextDouble() * 1100;
+      double y = 40 + random.nextDouble() * 640;
+      tapes.add(new RotatedRect(new Point(x, y), new Size(28, 10), -75.5));
+      tapes.add(new RotatedRect(new Point(x + 58, y), new Size(10, 28), -14.5));
+    }
+    while (tapes.size() < contours) {
+      Point center = new Point(random.nextDouble() * 1280, random.nextDouble() * 720);
+      Size size = new Size(2 + random.nextDouble() * 30, 2 + random.nextDouble() * 30);
+      tapes.add(random.nextInt(tapes.size() + 1), new RotatedRect(center, size,
+          -90 * random.nextDouble()));
+    }
+  }
+
+  @Benchmark
+  public List<GoalTarget> tapePairing() {
+    targets.clear();
+    pairing.pair(tapes, targets);
+    return targets;
+  }
+
+  /**
+   * The pairing as it was before {@link TapePairing}.
+   */
+  @Benchmark
+  public List<GoalTarget> legacyPairing() {
+    sorted.clear();
+    sorted.addAll(tapes);
+    for (int i = 1; i < sorted.size(); i++) {
+      RotatedRect key = sorted.get(i);
+      int index = i - 1;
+      while (index >= 0 && key.center.x < sorted.get(index).center.x) {
+        sorted.set(index + 1, sorted.get(index));
+        index--;
+      }
+      sorted.set(index + 1, key);
+    }
+
+    targets.clear();
+    for (int index = 0; index < sorted.size() - 1; index++) {
+      if (sorted.get(index).angle > -100 && sorted.get(index).angle < -45
+          && sorted.get(index + 1).angle > -40 && sorted.get(index + 1).angle < 0) {
+        targets.add(new GoalTarget(sorted.get(index + 1), sorted.get(index)));
+      }
+    }
+    return targets;
+  }
+}
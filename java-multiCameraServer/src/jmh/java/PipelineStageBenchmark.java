@@ -0,0 +1,147 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The {@link CardinalPipeline} stages after the blur, the target pairing and
+ * the whole pipeline.
+ *
+ * <p>The input of every stage is computed once per frame in setup, so each
+ * benchmark measures only its own stage.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PipelineStageBenchmark {
+  @Param({"320x240", "640x480"})
+  public String resolution;
+
+  private final PipelineConfig config = PipelineConfig.kDefault;
+  private BenchmarkFrames frames;
+  private CardinalPipeline pipeline;
+  private final List<Mat> blurred = new ArrayList<>();
+  private final List<Mat> masks = new ArrayList<>();
+  private final List<ArrayList<MatOfPoint>> contours = new ArrayList<>();
+  private final List<TargetFinder> finders = new ArrayList<>();
+  private final Mat output = new Mat();
+  private final Mat hls = new Mat();
+  private final GreenThreshold greenThreshold = new GreenThreshold();
+  private final Mat greenBlurred = new Mat();
+  private final ArrayList<MatOfPoint> contourOutput = new ArrayList<>();
+  private ComponentsDetector components;
+
+  /**
+   * Run the pipeline on every frame to get the input of each stage.
+   */
+  @Setup
+  public void setup() {
+    frames = BenchmarkFrames.load(resolution);
+    pipeline = new CardinalPipeline(config);
+    components = new ComponentsDetector(config);
+    for (int i = 0; i < frames.size(); i++) {
+      CardinalPipeline processed = new CardinalPipeline(config);
+      TargetFinder finder = new TargetFinder(processed);
+      finder.findTargets(frames.get(i));
+      blurred.add(processed.blurOutput());
+      masks.add(processed.hslThresholdOutput());
+      contours.add(processed.findContoursOutput());
+      finders.add(finder);
+    }
+  }
+
+  /**
+   * Release every buffer.
+   */
+  @TearDown
+  public void tearDown() {
+    for (TargetFinder finder : finders) {
+      finder.release();
+    }
+    output.release();
+    hls.release();
+    greenThreshold.release();
+    greenBlurred.release();
+    contourOutput.clear();
+    pipeline.release();
+    components.release();
+    frames.release();
+  }
+
+  /**
+   * The threshold as the pipeline runs it, with the HLS conversion in its own
+   * image so neither image is reallocated.
+   */
+  @Benchmark
+  public Mat hslThreshold() {
+    pipeline.hslThreshold(blurred.get(frames.nextIndex()), config.hslLower, config.hslUpper, hls,
+        output);
+    return output;
+  }
+
+  /**
+   * The single channel alternative to blur + hslThreshold: excess green,
+   * then the blur and threshold of that one channel.
+   */
+  @Benchmark
+  public Mat greenThreshold() {
+    greenThreshold.apply(frames.next(), output);
+    pipeline.blur(output, config.blurType, config.blurRadius, config.blurKernelSize, greenBlurred);
+    Imgproc.threshold(greenBlurred, output, config.greenMin, 255, Imgproc.THRESH_BINARY);
+    return output;
+  }
+
+  @Benchmark
+  public List<MatOfPoint> findContours() {
+    pipeline.findContours(masks.get(frames.nextIndex()), config.externalOnly, null,
+        pipeline.findContoursOutput());
+    return pipeline.findContoursOutput();
+  }
+
+  @Benchmark
+  public List<MatOfPoint> filterContours() {
+    pipeline.filterContours(contours.get(frames.nextIndex()), config, contourOutput);
+    return contourOutput;
+  }
+
+  /**
+   * minAreaRect and the TapePairing of the tapes.
+   */
+  @Benchmark
+  public List<GoalTarget> pairTargets() {
+    return finders.get(frames.nextIndex()).pairTargets();
+  }
+
+  @Benchmark
+  public List<MatOfPoint> process() {
+    pipeline.process(frames.next());
+    return pipeline.filterContoursOutput();
+  }
+
+  /**
+   * The whole connected components backend, comparable to process().
+   */
+  @Benchmark
+  public ComponentsDetector components() {
+    components.process(frames.next());
+    return components;
+  }
+}
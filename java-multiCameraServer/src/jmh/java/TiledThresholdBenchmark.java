@@ -0,0 +1,63 @@
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.JsonObject;
+
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The blur and HSL threshold of a frame on 1, 2 and 4 threads, see
+ * {@link TiledThreshold}. With 1 thread this is the untiled path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TiledThresholdBenchmark {
+  @Param({"320x240", "640x480", "1280x720"})
+  public String resolution;
+
+  @Param({"1", "2", "4"})
+  public int threads;
+
+  private BenchmarkFrames frames;
+  private CardinalPipeline pipeline;
+  private PipelineConfig config;
+
+  /**
+   * Load the frames and build the config for the thread count.
+   */
+  @Setup
+  public void setup() {
+    frames = BenchmarkFrames.load(resolution);
+    JsonObject overrides = new JsonObject();
+    overrides.addProperty("threshold threads", threads);
+    config = PipelineConfig.kDefault.with(overrides);
+    pipeline = new CardinalPipeline(config);
+  }
+
+  @TearDown
+  public void tearDown() {
+    pipeline.release();
+    frames.release();
+  }
+
+  @Benchmark
+  public Mat threshold() {
+    pipeline.processMask(frames.next(), config);
+    return pipeline.maskOutput();
+  }
+}
@@ -0,0 +1,148 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.MatOfPoint3f;
+import org.opencv.core.Point3;
+import org.opencv.core.Size;
+import org.opencv.core.TermCriteria;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Computes the intrinsics and lens distortion of a camera offline from
+ * pictures of a checkerboard, and prints them as a "camera model" section
+ * for frc.json (see {@link CameraModel}).
+ *
+ * <pre>
+ *   java -cp java-multiCameraServer-all.jar Calibration &lt;frames&gt; &lt;columns&gt; &lt;rows&gt; &lt;square size&gt;
+ * </pre>
+ *
+ * <p>The frames are a directory of images or a video file, taken with the
+ * camera at the resolution it runs at, with the board in different
+ * positions and angles over the whole field of view. Columns and rows are
+ * the inner corners of the board, the square size is in meters. Frames in
+ * which the board is not found are skipped.
+ */
+public final class Calibration {
+  static {
+    System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+  }
+
+  private static final int kMinViews = 5;
+
+  private Calibration() {
+  }
+
+  private static void usage() {
+    System.err.println("usage: Calibration <frames> <columns> <rows> <square size>");
+    System.exit(2);
+  }
+
+  /**
+   * Main.
+   */
+  public static void main(String... args) {
+    if (args.length != 4) {
+      usage();
+    }
+    Size board = new Size(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+    double squareSize = Double.parseDouble(args[3]);
+
+    FrameSource source;
+    try {
+      source = FrameSource.open(new File(args[0]), 30);
+    } catch (IllegalArgumentException ex) {
+      System.err.println(ex.getMessage());
+      System.exit(1);
+      return;
+    }
+
+    MatOfPoint3f boardPoints = boardPoints(board, squareSize);
+    List<Mat> objectPoints = new ArrayList<>();
+    List<Mat> imagePoints = new ArrayList<>();
+    TermCriteria criteria = new TermCriteria(TermCriteria.EPS + TermCriteria.MAX_ITER, 30, 0.001);
+    Mat frame = new Mat();
+    Mat gray = new Mat();
+    Size imageSize = null;
+    int frames = 0;
+    try {
+      while (source.grabFrame(frame) >= 0) {
+        frames++;
+        if (imageSize == null) {
+          imageSize = frame.size();
+        } else if (!imageSize.equals(frame.size())) {
+          System.err.println("frame " + frames + ": size differs from the first frame, skipped");
+          continue;
+        }
+        Imgproc.cvtColor(frame, gray, Imgproc.COLOR_BGR2GRAY);
+        MatOfPoint2f corners = new MatOfPoint2f();
+        if (!Calib3d.findChessboardCorners(gray, board, corners,
+            Calib3d.CALIB_CB_ADAPTIVE_THRESH | Calib3d.CALIB_CB_NORMALIZE_IMAGE)) {
+          corners.release();
+          continue;
+        }
+        Imgproc.cornerSubPix(gray, corners, new Size(5, 5), new Size(-1, -1), criteria);
+        objectPoints.add(boardPoints);
+        imagePoints.add(corners);
+      }
+    } finally {
+      source.close();
+      frame.release();
+      gray.release();
+    }
+
+    System.err.println(String.format("%s: board found in %d of %d frames", source.getName(),
+        imagePoints.size(), frames));
+    if (imagePoints.size() < kMinViews) {
+      System.err.println("need the board in at least " + kMinViews + " frames");
+      System.exit(1);
+    }
+
+    Mat cameraMatrix = new Mat();
+    Mat distortion = new Mat();
+    List<Mat> rvecs = new ArrayList<>();
+    List<Mat> tvecs = new ArrayList<>();
+    double error = Calib3d.calibrateCamera(objectPoints, imagePoints, imageSize, cameraMatrix,
+        distortion, rvecs, tvecs);
+    System.err.println(String.format("%.0fx%.0f, reprojection error %.3f pixels",
+        imageSize.width, imageSize.height, error));
+
+    JsonObject model = new JsonObject();
+    model.addProperty("fx", cameraMatrix.get(0, 0)[0]);
+    model.addProperty("fy", cameraMatrix.get(1, 1)[0]);
+    model.addProperty("cx", cameraMatrix.get(0, 2)[0]);
+    model.addProperty("cy", cameraMatrix.get(1, 2)[0]);
+    JsonArray coefficients = new JsonArray();
+    for (int i = 0; i < distortion.total(); i++) {
+      coefficients.add(distortion.get(0, i)[0]);
+    }
+    model.add("distortion", coefficients);
+    JsonObject section = new JsonObject();
+    section.add("camera model", model);
+    System.out.println(new GsonBuilder().setPrettyPrinting().create().toJson(section));
+  }
+
+  /**
+   * The inner corners of the board in its own plane, row by row like
+   * findChessboardCorners returns them.
+   */
+  private static MatOfPoint3f boardPoints(Size board, double squareSize) {
+    List<Point3> points = new ArrayList<>();
+    for (int row = 0; row < board.height; row++) {
+      for (int column = 0; column < board.width; column++) {
+        points.add(new Point3(column * squareSize, row * squareSize, 0));
+      }
+    }
+    MatOfPoint3f mat = new MatOfPoint3f();
+    mat.fromList(points);
+    return mat;
+  }
+}
@@ -1,43 +1,69 @@
-
-
 public class CameraCalculations
 {
-  private static final double fovHorizontal = 70.42;
   private static final double pixelsHorizontal = 320;
   private static final double pixelsVertical = 240;
-  private static final double centerPixelHorizontal = pixelsHorizontal/2;
-  private static final double centerPixelVertical = pixelsVertical/2;
-  private static final double distanceBetweenTargets = 0.288925;
+
+  // Static access to the original 320x240 camera. The methods with a frame
+  // size scale pixel values from that frame to 320x240 first. New code should
+  // use a CameraModel built for its camera.
+  private static final CameraModel model = new CameraModel((int) pixelsHorizontal, (int) pixelsVertical, CameraModel.kDefaultFov);
 
   public static double getFocalLength()
   {
-      return pixelsHorizontal / (2 * Math.tan(fovHorizontal/2));
+      return model.getFocalLength();
+  }
+
+  public static double getFocalLength(double frameWidth)
+  {
+      return model.getFocalLength() * frameWidth / pixelsHorizontal;
   }
 
   public static double getHorizontalDegreesToPixels(double targetXpixels)
   {
-      return -1 * Math.atan((targetXpixels - centerPixelHorizontal) / getFocalLength());
+      return model.horizontalAngle(targetXpixels);
+  }
+
+  public static double getHorizontalDegreesToPixels(double targetXpixels, double frameWidth)
+  {
+      return model.horizontalAngle(targetXpixels * pixelsHorizontal / frameWidth);
   }
 
   public static double getVerticalDegreesToPixels(double targetYpixels)
   {
-      return Math.atan((targetYpixels - centerPixelVertical) / getFocalLength());
+      return model.verticalAngle(targetYpixels);
+  }
+
+  public static double getVerticalDegreesToPixels(double targetYpixels, double frameWidth, double frameHeight)
+  {
+      return model.verticalAngle((targetYpixels - frameHeight/2) * pixelsHorizontal / frameWidth + pixelsVertical/2);
   }
 
   public static double getMetersPerPixel(double targetWidthPixels)
   {
-      return distanceBetweenTargets / targetWidthPixels;
+      return CameraModel.kTargetSpacing / targetWidthPixels;
   }
 
   public static double getXOffset(double targetWidthPixels, double cenX)
   {
-      return getMetersPerPixel(targetWidthPixels) * (centerPixelHorizontal - cenX);
+      return model.xOffset(targetWidthPixels, cenX);
+  }
+
+  public static double getXOffset(double targetWidthPixels, double cenX, double frameWidth)
+  {
+      double scale = pixelsHorizontal / frameWidth;
+      return model.xOffset(targetWidthPixels * scale, cenX * scale);
   }
 
   public static double getDistance(double targetWidthPixels, double cenX)
   {
-      return getXOffset(targetWidthPixels, cenX) / Math.tan(getHorizontalDegreesToPixels(cenX));
+      return model.distance(targetWidthPixels, cenX);
+  }
+
+  public static double getDistance(double targetWidthPixels, double cenX, double frameWidth)
+  {
+      double scale = pixelsHorizontal / frameWidth;
+      return model.distance(targetWidthPixels * scale, cenX * scale);
   } 
 
 
-}
\ No newline at end of file
+}
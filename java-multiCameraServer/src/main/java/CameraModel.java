@@ -0,0 +1,273 @@
+import java.util.Map;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * The geometry of one camera: resolution, field of view or intrinsics, and
+ * optionally lens distortion.
+ *
+ * <p>The direction of every pixel column and row is computed once, with the
+ * distortion removed, into lookup tables. Turning a target into its offset,
+ * distance and angle is then a few table lookups with linear interpolation
+ * between columns, and no trigonometry. Angles are in radians, positive to
+ * the left of and below the optical axis, as published so far.
+ *
+ * <p>Settings come from the optional {@code "camera model"} object of a
+ * camera in frc.json:
+ * <pre>
+ *   "fov": horizontal field of view in degrees, 70.42 if unspecified
+ *   "fx", "fy", "cx", "cy": intrinsics in pixels at the camera resolution,
+ *       instead of the field of view (see the Calibration tool)
+ *   "distortion": [k1, k2, p1, p2, k3]
+ * </pre>
+ */
+public class CameraModel {
+  public static final double kDefaultFov = 70.42;
+  // center to center spacing of the two tapes of a target, in meters
+  public static final double kTargetSpacing = 0.288925;
+
+  private final int width;
+  private final int height;
+  private final double fx;
+  private final double fy;
+  private final double cx;
+  private final double cy;
+  private final double[] distortion;
+
+  // per column and row, from 0 to width or height: the normalized image
+  // coordinate (tangent of the angle off the axis) and the angle itself
+  private final double[] columnTangent;
+  private final double[] columnAngle;
+  private final double[] rowTangent;
+  private final double[] rowAngle;
+
+  /**
+   * A distortion free camera with its principal point at the image center.
+   * @param width the image width in pixels
+   * @param height the image height in pixels
+   * @param fovHorizontal the horizontal field of view in degrees
+   */
+  public CameraModel(int width, int height, double fovHorizontal) {
+    this(width, height, focalLength(width, fovHorizontal), focalLength(width, fovHorizontal),
+        width / 2.0, height / 2.0, null);
+  }
+
+  /**
+   * A camera with known intrinsics.
+   * @param width the image width in pixels
+   * @param height the image height in pixels
+   * @param fx the horizontal focal length in pixels
+   * @param fy the vertical focal length in pixels
+   * @param cx the principal point x
+   * @param cy the principal point y
+   * @param distortion the OpenCV distortion coefficients, or null for none
+   */
+  public CameraModel(int width, int height, double fx, double fy, double cx, double cy,
+      double[] distortion) {
+    this.width = width;
+    this.height = height;
+    this.fx = fx;
+    this.fy = fy;
+    this.cx = cx;
+    this.cy = cy;
+    this.distortion = distortion != null ? distortion.clone() : new double[0];
+
+    columnTangent = new double[width + 1];
+    rowTangent = new double[height + 1];
+    if (this.distortion.length == 0) {
+      for (int x = 0; x <= width; x++) {
+        columnTangent[x] = (x - cx) / fx;
+      }
+      for (int y = 0; y <= height; y++) {
+        rowTangent[y] = (y - cy) / fy;
+      }
+    } else {
+      undistortAxis(columnTangent, true);
+      undistortAxis(rowTangent, false);
+    }
+
+    columnAngle = new double[width + 1];
+    rowAngle = new double[height + 1];
+    for (int x = 0; x <= width; x++) {
+      columnAngle[x] = -Math.atan(columnTangent[x]);
+    }
+    for (int y = 0; y <= height; y++) {
+      rowAngle[y] = Math.atan(rowTangent[y]);
+    }
+  }
+
+  /**
+   * Build the model of a camera from its "camera model" settings.
+   * @param settings the settings, or null for the defaults
+   * @param width the image width in pixels
+   * @param height the image height in pixels
+   * @throws IllegalArgumentException if a setting is unknown or incomplete
+   */
+  public static CameraModel fromJson(JsonObject settings, int width, int height) {
+    if (settings == null) {
+      return new CameraModel(width, height, kDefaultFov);
+    }
+    for (Map.Entry<String, JsonElement> entry : settings.entrySet()) {
+      switch (entry.getKey()) {
+        case "fov": case "fx": case "fy": case "cx": case "cy": case "distortion":
+          break;
+        default:
+          throw new IllegalArgumentException("unknown camera model setting '" + entry.getKey() + "'");
+      }
+    }
+
+    double[] distortion = null;
+    if (settings.has("distortion")) {
+      JsonArray coefficients = settings.getAsJsonArray("distortion");
+      distortion = new double[coefficients.size()];
+      for (int i = 0; i < distortion.length; i++) {
+        distortion[i] = coefficients.get(i).getAsDouble();
+      }
+    }
+    if (settings.has("fx") || settings.has("fy") || settings.has("cx") || settings.has("cy")) {
+      if (!settings.has("fx") || !settings.has("fy") || !settings.has("cx") || !settings.has("cy")) {
+        throw new IllegalArgumentException("camera model needs all of fx, fy, cx and cy");
+      }
+      return new CameraModel(width, height, settings.get("fx").getAsDouble(),
+          settings.get("fy").getAsDouble(), settings.get("cx").getAsDouble(),
+          settings.get("cy").getAsDouble(), distortion);
+    }
+    double fov = settings.has("fov") ? settings.get("fov").getAsDouble() : kDefaultFov;
+    double f = focalLength(width, fov);
+    return new CameraModel(width, height, f, f, width / 2.0, height / 2.0, distortion);
+  }
+
+  private static double focalLength(int width, double fovHorizontal) {
+    return width / (2 * Math.tan(Math.toRadians(fovHorizontal) / 2));
+  }
+
+  /**
+   * Fill a table with the undistorted normalized coordinate of every column,
+   * or row, along the line through the principal point.
+   */
+  private void undistortAxis(double[] table, boolean columns) {
+    Point[] points = new Point[table.length];
+    for (int i = 0; i < table.length; i++) {
+      points[i] = columns ? new Point(i, cy) : new Point(cx, i);
+    }
+    MatOfPoint2f distorted = new MatOfPoint2f(points);
+    MatOfPoint2f undistorted = new MatOfPoint2f();
+    Mat cameraMatrix = cameraMatrix();
+    MatOfDouble coefficients = new MatOfDouble(distortion);
+    Imgproc.undistortPoints(distorted, undistorted, cameraMatrix, coefficients);
+    Point[] normalized = undistorted.toArray();
+    for (int i = 0; i < table.length; i++) {
+      table[i] = columns ? normalized[i].x : normalized[i].y;
+    }
+    distorted.release();
+    undistorted.release();
+    cameraMatrix.release();
+    coefficients.release();
+  }
+
+  /**
+   * A new 3x3 camera matrix, to be released by the caller.
+   */
+  public Mat cameraMatrix() {
+    Mat matrix = Mat.zeros(3, 3, CvType.CV_64F);
+    matrix.put(0, 0, fx, 0, cx, 0, fy, cy, 0, 0, 1);
+    return matrix;
+  }
+
+  /**
+   * A copy of the distortion coefficients, empty if there are none.
+   */
+  public double[] distortion() {
+    return distortion.clone();
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public double getFocalLength() {
+    return fx;
+  }
+
+  /**
+   * The horizontal angle of an image x coordinate off the optical axis.
+   */
+  public double horizontalAngle(double x) {
+    return lookup(columnAngle, x);
+  }
+
+  /**
+   * The vertical angle of an image y coordinate off the optical axis.
+   */
+  public double verticalAngle(double y) {
+    return lookup(rowAngle, y);
+  }
+
+  /**
+   * The sideways offset of a target from the optical axis in meters.
+   * @param targetWidth the distance between the tape centers in pixels
+   * @param centerX the target center x in pixels
+   */
+  public double xOffset(double targetWidth, double centerX) {
+    return -distance(targetWidth, centerX) * lookup(columnTangent, centerX);
+  }
+
+  /**
+   * The distance of a target along the optical axis in meters, from the
+   * known spacing of its tapes.
+   * @param targetWidth the distance between the tape centers in pixels
+   * @param centerX the target center x in pixels
+   */
+  public double distance(double targetWidth, double centerX) {
+    double left = centerX - targetWidth / 2;
+    double right = centerX + targetWidth / 2;
+    double tangentWidth = lookup(columnTangent, right) - lookup(columnTangent, left);
+    return kTargetSpacing / tangentWidth;
+  }
+
+  /**
+   * Compute the offset, distance and angle of many targets at once, into
+   * caller-owned arrays.
+   * @param count the number of targets
+   * @param centerX the target centers x in pixels
+   * @param targetWidth the distances between the tape centers in pixels
+   * @param xOffset receives the offsets in meters
+   * @param distance receives the distances in meters
+   * @param angle receives the horizontal angles in radians
+   */
+  public void compute(int count, double[] centerX, double[] targetWidth, double[] xOffset,
+      double[] distance, double[] angle) {
+    for (int i = 0; i < count; i++) {
+      double x = centerX[i];
+      double left = x - targetWidth[i] / 2;
+      double right = x + targetWidth[i] / 2;
+      double d = kTargetSpacing / (lookup(columnTangent, right) - lookup(columnTangent, left));
+      distance[i] = d;
+      xOffset[i] = -d * lookup(columnTangent, x);
+      angle[i] = lookup(columnAngle, x);
+    }
+  }
+
+  /**
+   * Interpolate a per-pixel table, extrapolating from the edge outside of
+   * the image.
+   */
+  private static double lookup(double[] table, double position) {
+    int index = Math.max(0, Math.min(table.length - 2, (int) Math.floor(position)));
+    double fraction = position - index;
+    return table[index] + fraction * (table[index + 1] - table[index]);
+  }
+}
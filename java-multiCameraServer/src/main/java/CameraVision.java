@@ -0,0 +1,455 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.JsonObject;
+
+import edu.wpi.cscore.CvSink;
+import edu.wpi.cscore.VideoMode;
+import edu.wpi.cscore.VideoSource;
+import edu.wpi.first.cameraserver.CameraServer;
+import edu.wpi.first.networktables.EntryListenerFlags;
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTablesJNI;
+
+/**
+ * Vision processing for a single camera, split into three stages.
+ *
+ * <p>A capture thread grabs frames into a {@link FrameRing}. One or more
+ * processing workers, run on the {@link VisionEngine} pool, each take the
+ * newest frame, run their own pipeline instance on it and hand a
+ * {@link FrameResult} to the engine's publish stage, which writes it to
+ * NetworkTables. So the camera keeps capturing while frames are processed,
+ * and a slow frame never delays the next one.
+ *
+ * <p>A worker is only queued on the pool when there is a frame for it: the
+ * capture thread submits an idle worker after every frame, and a worker
+ * that finds another frame waiting when it finishes submits one again.
+ * Workers never wait for frames, so a pool thread is never held by a slow
+ * camera while another camera has a frame ready.
+ *
+ * <p>A {@link QosScheduler} may lower the quality of the pipeline settings
+ * or skip frames when the latency budget is exceeded; the settings set and
+ * published are always the configured ones.
+ */
+public class CameraVision {
+  private static final int kResultsPerWorker = 2;
+
+  private final String name;
+  private final CvSink sink;
+  private final FrameRing ring;
+  private final TargetFinder[] finders;
+  private final CameraModel model;
+  private final PoseEstimator[] poseEstimators;
+  private final List<BlockingQueue<FrameResult>> freeResults = new ArrayList<>();
+  private final NetworkTable table;
+  private final NetworkTable pipelineTable;
+  private final NetworkTable metricsTable;
+  private final PipelineMetrics metrics = new PipelineMetrics();
+  private final Object configLock = new Object();
+  private final QosScheduler qos;
+
+  // the configured settings, and the work reduction of the scheduler, guarded by configLock
+  private PipelineConfig baseConfig;
+  private boolean cheapBlur;
+  private boolean downscale;
+  private volatile int frameDivisor = 1;
+  private final AtomicLong framesTaken = new AtomicLong();
+  private volatile DebugStream debugStream;
+  private volatile DetectionLog detectionLog;
+  private int logCamera = -1;
+  // the targets of the last processed frame, for spotting dropouts
+  private volatile int lastTargetCount;
+
+  private Thread captureThread;
+  private volatile boolean capturing;
+  private Executor pool;
+  private BlockingQueue<FrameResult> publishQueue;
+  private final ConcurrentLinkedQueue<Integer> idleWorkers = new ConcurrentLinkedQueue<>();
+  private final Runnable[] workerTasks;
+
+  // only used by the publish stage
+  private long lastPublishedId;
+  private final TargetTracker tracker = new TargetTracker();
+  private final ResultPublisher publisher;
+
+  // statistics since the last report, guarded by this
+  private long framesProcessed;
+  private long framesFailed;
+  private long processNanosTotal;
+  private long processNanosMax;
+
+  /**
+   * Create the vision processing for a camera.
+   * @param camera the camera to grab frames from
+   * @param config the initial pipeline settings
+   * @param workers the number of frames that may be processed at once, each
+   *     worker with its own pipeline instance
+   * @param detector the name of the tape detector, see {@link TapeDetector#create}
+   * @param model the geometry of the camera at its video mode
+   * @param table the table the frame rate and latency are published to
+   * @param publisher writes the results of every frame
+   * @param metricsTable the table latency metrics are published to
+   * @param qos the scheduler the latency of every frame is reported to
+   */
+  public CameraVision(VideoSource camera, PipelineConfig config, int workers, String detector,
+      CameraModel model, NetworkTable table, ResultPublisher publisher, NetworkTable metricsTable,
+      QosScheduler qos) {
+    this.name = camera.getName();
+    this.sink = CameraServer.getInstance().getVideo(camera);
+    this.table = table;
+    this.publisher = publisher;
+    this.model = model;
+    this.metricsTable = metricsTable;
+    this.qos = qos;
+    this.baseConfig = config;
+
+    VideoMode mode = camera.getVideoMode();
+    ring = new FrameRing(workers, mode.width, mode.height);
+    finders = new TargetFinder[workers];
+    poseEstimators = new PoseEstimator[workers];
+    workerTasks = new Runnable[workers];
+    for (int worker = 0; worker < workers; worker++) {
+      int index = worker;
+      workerTasks[worker] = () -> runWorker(index);
+      idleWorkers.add(worker);
+      finders[worker] = new TargetFinder(TapeDetector.create(detector, config));
+      poseEstimators[worker] = new PoseEstimator(model);
+      BlockingQueue<FrameResult> free = new ArrayBlockingQueue<>(kResultsPerWorker);
+      for (int i = 0; i < kResultsPerWorker; i++) {
+        free.add(new FrameResult(this, free));
+      }
+      freeResults.add(free);
+    }
+
+    // expose the pipeline settings for tuning from a dashboard
+    pipelineTable = table.getSubTable("pipeline");
+    config.publish(pipelineTable);
+    pipelineTable.addEntryListener((changedTable, key, entry, value, flags) -> {
+      synchronized (configLock) {
+        try {
+          baseConfig = baseConfig.with(key, value);
+          applyConfig();
+        } catch (IllegalArgumentException ex) {
+          System.err.println("camera '" + name + "': " + ex.getMessage());
+        }
+      }
+    }, EntryListenerFlags.kNew | EntryListenerFlags.kUpdate);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * The number of processing workers of this camera.
+   */
+  public int getWorkers() {
+    return finders.length;
+  }
+
+  /**
+   * Replace the pipeline settings, e.g. after frc.json was edited. The change
+   * is applied from the next frame and mirrored to NetworkTables.
+   */
+  public void setPipelineConfig(PipelineConfig config) {
+    synchronized (configLock) {
+      baseConfig = config;
+      applyConfig();
+      config.publish(pipelineTable);
+    }
+  }
+
+  /**
+   * Send the frames with what was found in them to a debug stream.
+   * @param stream the stream, or null for none
+   */
+  public void setDebugStream(DebugStream stream) {
+    debugStream = stream;
+  }
+
+  /**
+   * Record every published frame, and thumbnails of dropouts, to a detection
+   * log. Must be set before capturing starts.
+   * @param log the log, or null for none
+   */
+  public void setDetectionLog(DetectionLog log) {
+    logCamera = log != null ? log.addCamera(name) : -1;
+    detectionLog = log;
+  }
+
+  /**
+   * Reduce the work per frame, see {@link QosScheduler}.
+   * @param cheapBlur use a box blur whatever blur is configured
+   * @param downscale find candidates on a downscaled frame first
+   * @param frameDivisor process only every frameDivisor-th frame
+   */
+  public void setQos(boolean cheapBlur, boolean downscale, int frameDivisor) {
+    synchronized (configLock) {
+      this.frameDivisor = frameDivisor;
+      if (cheapBlur != this.cheapBlur || downscale != this.downscale) {
+        this.cheapBlur = cheapBlur;
+        this.downscale = downscale;
+        applyConfig();
+      }
+    }
+  }
+
+  /**
+   * Give the workers the configured settings with the scheduler's
+   * reductions. Called with configLock held.
+   */
+  private void applyConfig() {
+    PipelineConfig config = baseConfig;
+    JsonObject reduced = new JsonObject();
+    if (cheapBlur) {
+      reduced.addProperty("blur type", CardinalPipeline.BlurType.BOX.toString());
+    }
+    if (downscale && config.pyramidLevels == 0) {
+      reduced.addProperty("pyramid levels", 1);
+    }
+    if (reduced.size() > 0) {
+      config = config.with(reduced);
+    }
+    for (TargetFinder finder : finders) {
+      finder.getPipeline().setConfig(config);
+    }
+  }
+
+  /**
+   * Start the capture thread, which submits the workers to a pool as frames
+   * arrive.
+   * @param pool the pool the workers run on
+   * @param publishQueue the queue of the publish stage
+   */
+  public void startCapture(Executor pool, BlockingQueue<FrameResult> publishQueue) {
+    this.pool = pool;
+    this.publishQueue = publishQueue;
+    capturing = true;
+    captureThread = new Thread(this::capture, "Capture-" + name);
+    captureThread.setDaemon(true);
+    captureThread.start();
+  }
+
+  /**
+   * Stop the capture thread and wait for it to finish its current grab.
+   */
+  public void stopCapture() throws InterruptedException {
+    capturing = false;
+    if (captureThread != null) {
+      captureThread.join(1000);
+    }
+  }
+
+  private void capture() {
+    while (capturing) {
+      FrameRing.Slot slot = ring.acquireWrite();
+      long frameTime = sink.grabFrame(slot.frame);
+      if (frameTime == 0) {
+        ring.cancel(slot);
+        synchronized (this) {
+          framesFailed++;
+        }
+        continue;
+      }
+      ring.publish(slot, frameTime);
+      dispatch();
+    }
+  }
+
+  /**
+   * Submit an idle worker to the pool, if there is one.
+   */
+  private void dispatch() {
+    if (!capturing) {
+      return;
+    }
+    Integer worker = idleWorkers.poll();
+    if (worker == null) {
+      return;
+    }
+    try {
+      pool.execute(workerTasks[worker]);
+    } catch (RejectedExecutionException ex) {
+      // the engine is stopping
+      idleWorkers.add(worker);
+    }
+  }
+
+  /**
+   * A worker's turn on the pool: process the newest frame, then go idle, or
+   * submit a worker again if another frame arrived meanwhile. Going idle
+   * before checking means a frame is never left without a worker.
+   */
+  private void runWorker(int worker) {
+    try {
+      processFrame(worker);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    } catch (RuntimeException ex) {
+      System.err.println("camera '" + name + "': vision processing failed: " + ex);
+    } finally {
+      idleWorkers.add(worker);
+    }
+    if (ring.hasLatest()) {
+      dispatch();
+    }
+  }
+
+  /**
+   * Process the newest frame on a worker and queue its result for publishing.
+   * @param worker the worker index, below {@link #getWorkers()}
+   * @return false if there was no new frame
+   */
+  private boolean processFrame(int worker) throws InterruptedException {
+    FrameRing.Slot slot = ring.pollLatest();
+    if (slot == null) {
+      return false;
+    }
+    int divisor = frameDivisor;
+    if (divisor > 1 && framesTaken.incrementAndGet() % divisor != 0) {
+      ring.release(slot);
+      metrics.recordSkipped(1);
+      return true;
+    }
+
+    FrameResult result;
+    long start;
+    try {
+      result = freeResults.get(worker).take();
+      start = System.nanoTime();
+      try {
+        TargetFinder finder = finders[worker];
+        List<GoalTarget> targets = finder.findTargets(slot.frame);
+        result.setTargets(targets, model);
+        result.tapes = finder.tapeCount();
+        DetectionLog log = detectionLog;
+        if (log != null && targets.isEmpty() && lastTargetCount > 0) {
+          result.thumbnail = log.takeThumbnail(logCamera, slot.frame, slot.frameTime);
+        }
+        lastTargetCount = targets.size();
+        DebugStream stream = debugStream;
+        if (stream != null) {
+          stream.offer(slot.frame, slot.frameTime, finder.tapes(), targets);
+        }
+        System.arraycopy(finder.getPipeline().stageNanos(), 0, result.stageNanos, 0,
+            result.stageNanos.length);
+        if (finder.getPipeline().getConfig().solvePose) {
+          long poseStart = System.nanoTime();
+          result.setPoses(targets, poseEstimators[worker]);
+          result.stageNanos[PipelineMetrics.Stage.POSE.ordinal()] = System.nanoTime() - poseStart;
+        }
+        System.arraycopy(finder.getPipeline().rejections(), 0, result.rejections, 0,
+            result.rejections.length);
+      } catch (MatPool.CapExceededException ex) {
+        // over the native memory cap, drop the frame instead of growing
+        result.recycle();
+        metrics.recordOverCap(1);
+        return true;
+      } catch (RuntimeException ex) {
+        result.recycle();
+        throw ex;
+      }
+      result.frameId = slot.frameId;
+      result.frameTime = slot.frameTime;
+    } finally {
+      ring.release(slot);
+    }
+
+    long elapsed = System.nanoTime() - start;
+    result.stageNanos[PipelineMetrics.Stage.PROCESS.ordinal()] = elapsed;
+    publishQueue.put(result);
+
+    synchronized (this) {
+      framesProcessed++;
+      processNanosTotal += elapsed;
+      processNanosMax = Math.max(processNanosMax, elapsed);
+    }
+    return true;
+  }
+
+  /**
+   * Track the targets of a result and write them to NetworkTables. Called
+   * only by the publish stage. Results older than the last published one,
+   * which can happen with several workers, are dropped.
+   */
+  public void publish(FrameResult result) {
+    if (result.frameId <= lastPublishedId) {
+      metrics.recordDropped(1);
+      return;
+    }
+    lastPublishedId = result.frameId;
+
+    long start = System.nanoTime();
+    tracker.update(result, finders[0].getPipeline().getConfig());
+    boolean published = publisher.publish(result, tracker);
+    if (!published) {
+      metrics.recordUnchanged(1);
+    }
+    long publishTime = NetworkTablesJNI.now();
+    qos.record(this, publishTime - result.frameTime);
+
+    result.stageNanos[PipelineMetrics.Stage.PUBLISH.ordinal()] = System.nanoTime() - start;
+    DetectionLog log = detectionLog;
+    if (log != null) {
+      log.record(logCamera, result, published, publishTime);
+    }
+    metrics.recordFrame(result.stageNanos, result.frameTime, publishTime, result.rejections);
+  }
+
+  /**
+   * Publish the per-stage latency percentiles since the last call.
+   */
+  public void publishMetrics() {
+    metrics.recordDropped(ring.takeDropped());
+    metrics.publish(metricsTable);
+    metricsTable.getEntry("qos level").setDouble(qos.getLevel(this));
+  }
+
+  /**
+   * Print and publish the frame rate and processing latency since the last
+   * report, then reset the counters.
+   * @param seconds the time since the last report
+   */
+  public synchronized void report(double seconds) {
+    double fps = framesProcessed / seconds;
+    double avgMs = framesProcessed > 0 ? processNanosTotal / 1e6 / framesProcessed : 0;
+    double maxMs = processNanosMax / 1e6;
+
+    System.out.println(String.format("camera '%s': %.1f fps, latency avg %.1f ms max %.1f ms, %d failed grabs",
+        name, fps, avgMs, maxMs, framesFailed));
+    table.getEntry("fps").setDouble(fps);
+    table.getEntry("latencyMs").setDouble(avgMs);
+
+    if (framesFailed > 0) {
+      System.out.println("camera '" + name + "': " + sink.getError());
+    }
+
+    framesProcessed = 0;
+    framesFailed = 0;
+    processNanosTotal = 0;
+    processNanosMax = 0;
+  }
+
+  /**
+   * Releases the frame and pipeline buffers. Must not be called while
+   * capturing or while a frame is being processed.
+   */
+  public void release() {
+    for (TargetFinder finder : finders) {
+      finder.release();
+    }
+    for (PoseEstimator estimator : poseEstimators) {
+      estimator.release();
+    }
+    if (debugStream != null) {
+      debugStream.release();
+    }
+    ring.releaseFrames();
+  }
+}
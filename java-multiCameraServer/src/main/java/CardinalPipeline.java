@@ -2,12 +2,13 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.HashMap;
 
-import edu.wpi.first.wpilibj.vision.VisionPipeline;
+import edu.wpi.first.vision.VisionPipeline;
 
 import org.opencv.core.*;
 import org.opencv.core.Core.*;
@@ -23,63 +24,350 @@ import org.opencv.objdetect.*;
 *
 * @author GRIP
 */
-public class CardinalPipeline implements VisionPipeline {
+public class CardinalPipeline implements TapeDetector {
 
-	//Outputs
-	private Mat blurOutput = new Mat();
-	private Mat hslThresholdOutput = new Mat();
+	//Outputs, the images borrowed from the MatPool
+	private final Buffers outputs = new Buffers();
 	private ArrayList<MatOfPoint> findContoursOutput = new ArrayList<MatOfPoint>();
 	private ArrayList<MatOfPoint> filterContoursOutput = new ArrayList<MatOfPoint>();
 
+	//Scratch buffers, reused on every frame so steady-state frames allocate nothing
+	private final GreenThreshold greenThreshold = new GreenThreshold();
+	private final TiledThreshold tiledThreshold = new TiledThreshold(this);
+	private final MatPool.Lease[] pyramid = new MatPool.Lease[PipelineConfig.kMaxPyramidLevels];
+	private final ArrayList<MatOfPoint> coarseContours = new ArrayList<MatOfPoint>();
+	private final ArrayList<MatOfPoint> coarseFiltered = new ArrayList<MatOfPoint>();
+	private final ArrayList<MatOfPoint> refineContours = new ArrayList<MatOfPoint>();
+	private final ArrayList<Rect> windows = new ArrayList<Rect>();
+	private final Buffers refine = new Buffers();
+	private final Mat hierarchy = new Mat();
+	private final MatOfPoint2f contour2f = new MatOfPoint2f();
+	private int[] contourPoints = new int[0];
+	private long[] sortedPoints = new long[0];
+	private long[] hullPoints = new long[0];
+
+	//Native size of a contour point, CV_32SC2
+	private static final int kPointBytes = 8;
+
 	static {
 		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
 	}
 
+	private volatile PipelineConfig config;
+	private Rect searchWindow;
+
+	//Time spent in each step, added up until clearStageNanos() is called
+	private final long[] stageNanos = new long[PipelineMetrics.Stage.kStages.length];
+	//Contours rejected by filterContours per reason, also cleared by clearStageNanos()
+	private final long[] rejections = new long[PipelineMetrics.Rejection.kRejections.length];
+
+	public CardinalPipeline() {
+		this(PipelineConfig.kDefault);
+	}
+
+	public CardinalPipeline(PipelineConfig config) {
+		this.config = config;
+	}
+
+	/**
+	 * The images of one blur and threshold pass. They are borrowed from the
+	 * MatPool and only exchanged when the input size changes.
+	 */
+	private static final class Buffers {
+		MatPool.Lease blurred;
+		MatPool.Lease hls;
+		MatPool.Lease mask;
+
+		/**
+		 * Make the images fit an input.
+		 * @param config The pipeline settings. The green threshold needs only
+		 * a single channel blur and no HLS image.
+		 * @param tiled Whether the tiled threshold is used, which blurs into
+		 * its own strips.
+		 * @throws MatPool.CapExceededException if the native memory cap is reached
+		 */
+		void prepare(Mat input, PipelineConfig config, boolean tiled) {
+			MatPool pool = MatPool.getInstance();
+			int rows = input.rows();
+			int cols = input.cols();
+			if (config.greenThreshold) {
+				blurred = pool.renew(blurred, rows, cols, CvType.CV_8UC1, MatPool.Use.BLUR);
+			}
+			else if (!tiled) {
+				blurred = pool.renew(blurred, rows, cols, input.type(), MatPool.Use.BLUR);
+			}
+			if (!config.greenThreshold) {
+				hls = pool.renew(hls, rows, cols, CvType.CV_8UC3, MatPool.Use.THRESHOLD);
+			}
+			mask = pool.renew(mask, rows, cols, CvType.CV_8UC1, MatPool.Use.THRESHOLD);
+		}
+
+		void release() {
+			MatPool pool = MatPool.getInstance();
+			pool.giveBack(blurred);
+			pool.giveBack(hls);
+			pool.giveBack(mask);
+			blurred = null;
+			hls = null;
+			mask = null;
+		}
+	}
+
+	/**
+	 * Replaces the pipeline parameters. Safe to call from any thread; the new
+	 * parameters are picked up at the start of the next frame.
+	 */
+	@Override
+	public void setConfig(PipelineConfig config) {
+		this.config = config;
+	}
+
+	@Override
+	public PipelineConfig getConfig() {
+		return config;
+	}
+
+	/**
+	 * Restricts the following frames to a window of the source image, e.g.
+	 * around the last known target. Contours are still reported in full frame
+	 * coordinates.
+	 * @param window the window to search, or null to search the full frame
+	 */
+	@Override
+	public void setSearchWindow(Rect window) {
+		this.searchWindow = window;
+	}
+
+	@Override
+	public Rect getSearchWindow() {
+		return searchWindow;
+	}
+
+	/**
+	 * The nanoseconds spent in each step since the last clearStageNanos(),
+	 * indexed by PipelineMetrics.Stage ordinal. Callers may add their own steps.
+	 */
+	@Override
+	public long[] stageNanos() {
+		return stageNanos;
+	}
+
+	/**
+	 * The number of contours rejected since the last clearStageNanos(),
+	 * indexed by PipelineMetrics.Rejection ordinal. Includes the coarse pass
+	 * of the pyramid mode.
+	 */
+	@Override
+	public long[] rejections() {
+		return rejections;
+	}
+
+	@Override
+	public void clearStageNanos() {
+		Arrays.fill(stageNanos, 0);
+		Arrays.fill(rejections, 0);
+	}
+
 	/**
 	 * This is the primary method that runs the entire pipeline and updates the outputs.
 	 */
 	@Override	public void process(Mat source0) {
-		// Step Blur0:
-		Mat blurInput = source0;
-		BlurType blurType = BlurType.get("Box Blur");
-		double blurRadius = 3.6036036036036037;
-		blur(blurInput, blurType, blurRadius, blurOutput);
-
-		// Step HSL_Threshold0:
-		Mat hslThresholdInput = blurOutput;
-		double[] hslThresholdHue = {66.36690647482014, 100.13651877133107};
-		double[] hslThresholdSaturation = {50.47662503622397, 255.0};
-		double[] hslThresholdLuminance = {149.05575539568346, 248.47269624573377};
-		hslThreshold(hslThresholdInput, hslThresholdHue, hslThresholdSaturation, hslThresholdLuminance, hslThresholdOutput);
+		// read the parameters once so every step of this frame sees the same snapshot
+		PipelineConfig config = this.config;
 
-		// Step Find_Contours0:
-		Mat findContoursInput = hslThresholdOutput;
-		boolean findContoursExternalOnly = false;
-		findContours(findContoursInput, findContoursExternalOnly, findContoursOutput);
+		if (searchWindow == null && config.pyramidConfig != null) {
+			pyramidContours(source0, config);
+		}
+		else {
+			Point offset = processMask(source0, config);
+			traceContours(outputs.mask.mat(), config, offset, findContoursOutput);
+		}
 
 		// Step Filter_Contours0:
+		long start = System.nanoTime();
 		ArrayList<MatOfPoint> filterContoursContours = findContoursOutput;
-		double filterContoursMinArea = 20.0;
-		double filterContoursMinPerimeter = 0.0;
-		double filterContoursMinWidth = 0.0;
-		double filterContoursMaxWidth = 1000.0;
-		double filterContoursMinHeight = 5.0;
-		double filterContoursMaxHeight = 1000.0;
-		double[] filterContoursSolidity = {64.74820143884892, 100};
-		double filterContoursMaxVertices = 1000000.0;
-		double filterContoursMinVertices = 0.0;
-		double filterContoursMinRatio = 0.0;
-		double filterContoursMaxRatio = 1000.0;
-		filterContours(filterContoursContours, filterContoursMinArea, filterContoursMinPerimeter, filterContoursMinWidth, filterContoursMaxWidth, filterContoursMinHeight, filterContoursMaxHeight, filterContoursSolidity, filterContoursMaxVertices, filterContoursMinVertices, filterContoursMinRatio, filterContoursMaxRatio, filterContoursOutput);
+		filterContours(filterContoursContours, config, filterContoursOutput);
+		stageNanos[PipelineMetrics.Stage.FILTER_CONTOURS.ordinal()] += System.nanoTime() - start;
+
+	}
+
+	/**
+	 * Runs only the blur and threshold steps, on the search window if one is
+	 * set or else on the whole frame, into hslThresholdOutput().
+	 * @throws MatPool.CapExceededException if the native memory cap is reached
+	 * @param source0 The BGR frame.
+	 * @param config The pipeline settings.
+	 * @return The position of the mask in the frame, or null if it covers the
+	 * whole frame.
+	 */
+	Point processMask(Mat source0, PipelineConfig config) {
+		// Restrict the search to the window, clipped to the frame
+		if (searchWindow != null) {
+			int x = Math.max(searchWindow.x, 0);
+			int y = Math.max(searchWindow.y, 0);
+			int width = Math.min(searchWindow.x + searchWindow.width, source0.cols()) - x;
+			int height = Math.min(searchWindow.y + searchWindow.height, source0.rows()) - y;
+			if (width > 0 && height > 0) {
+				Mat roi = source0.submat(y, y + height, x, x + width);
+				try {
+					threshold(roi, config, outputs);
+				}
+				finally {
+					roi.release();
+				}
+				return new Point(x, y);
+			}
+		}
+		threshold(source0, config, outputs);
+		return null;
+	}
+
+	/**
+	 * Blurs and thresholds an image with the configured threshold stage.
+	 * @param input The BGR image.
+	 * @param config The pipeline settings.
+	 * @param buffers The images in which to store the blur output, if any,
+	 * and the binary mask.
+	 */
+	private void threshold(Mat input, PipelineConfig config, Buffers buffers) {
+		boolean tiled = !config.greenThreshold
+			&& TiledThreshold.worthSplitting(input, config);
+		buffers.prepare(input, config, tiled);
+		Mat mask = buffers.mask.mat();
+		long start = System.nanoTime();
+		long end;
+		if (tiled) {
+			// Step Tiled_Threshold0: blur and threshold fused per strip, timed as threshold
+			tiledThreshold.apply(input, config, buffers.hls.mat(), mask);
+			stageNanos[PipelineMetrics.Stage.THRESHOLD.ordinal()] += System.nanoTime() - start;
+		}
+		else if (config.greenThreshold) {
+			// Step Green_Threshold0: excess green into the mask, blur it, threshold it back
+			Mat blurred = buffers.blurred.mat();
+			greenThreshold.apply(input, mask);
+			end = System.nanoTime();
+			stageNanos[PipelineMetrics.Stage.THRESHOLD.ordinal()] += end - start;
+
+			start = end;
+			blur(mask, config.blurType, config.blurRadius, config.blurKernelSize, blurred);
+			end = System.nanoTime();
+			stageNanos[PipelineMetrics.Stage.BLUR.ordinal()] += end - start;
+
+			start = end;
+			Imgproc.threshold(blurred, mask, config.greenMin, 255, Imgproc.THRESH_BINARY);
+			stageNanos[PipelineMetrics.Stage.THRESHOLD.ordinal()] += System.nanoTime() - start;
+		}
+		else {
+			// Step Blur0:
+			Mat blurInput = input;
+			Mat blurred = buffers.blurred.mat();
+			blur(blurInput, config.blurType, config.blurRadius, config.blurKernelSize, blurred);
+			end = System.nanoTime();
+			stageNanos[PipelineMetrics.Stage.BLUR.ordinal()] += end - start;
+
+			// Step HSL_Threshold0:
+			start = end;
+			Mat hslThresholdInput = blurred;
+			hslThreshold(hslThresholdInput, config.hslLower, config.hslUpper, buffers.hls.mat(), mask);
+			stageNanos[PipelineMetrics.Stage.THRESHOLD.ordinal()] += System.nanoTime() - start;
+		}
+	}
+
+	/**
+	 * Finds the contours of a mask, timed as the Find_Contours step.
+	 */
+	private void traceContours(Mat mask, PipelineConfig config, Point offset,
+		List<MatOfPoint> contours) {
+		// Step Find_Contours0:
+		long start = System.nanoTime();
+		Mat findContoursInput = mask;
+		findContours(findContoursInput, config.externalOnly, offset, contours);
+		stageNanos[PipelineMetrics.Stage.FIND_CONTOURS.ordinal()] += System.nanoTime() - start;
+	}
+
+	/**
+	 * Coarse to fine contour search. The frame is thresholded and filtered at
+	 * a downscaled pyramid level, then only the windows around the surviving
+	 * candidates are thresholded again at full resolution to get accurate
+	 * contours in findContoursOutput.
+	 */
+	private void pyramidContours(Mat source, PipelineConfig config) {
+		PipelineConfig coarse = config.pyramidConfig;
+		int scale = 1 << config.pyramidLevels;
+
+		// downscaling is a blur too, account it as such
+		long start = System.nanoTime();
+		Mat input = source;
+		for (int level = 0; level < config.pyramidLevels; level++) {
+			pyramid[level] = MatPool.getInstance().renew(pyramid[level], (input.rows() + 1) / 2,
+				(input.cols() + 1) / 2, input.type(), MatPool.Use.BLUR);
+			Imgproc.pyrDown(input, pyramid[level].mat());
+			input = pyramid[level].mat();
+		}
+		stageNanos[PipelineMetrics.Stage.BLUR.ordinal()] += System.nanoTime() - start;
+
+		threshold(input, coarse, outputs);
+		traceContours(outputs.mask.mat(), coarse, null, coarseContours);
+		start = System.nanoTime();
+		filterContours(coarseContours, coarse, coarseFiltered);
+		stageNanos[PipelineMetrics.Stage.FILTER_CONTOURS.ordinal()] += System.nanoTime() - start;
+
+		// full resolution windows around the candidates, overlapping ones merged
+		int margin = config.blurRadius + scale + 2;
+		windows.clear();
+		for (int i = 0; i < coarseFiltered.size(); i++) {
+			Rect bb = Imgproc.boundingRect(coarseFiltered.get(i));
+			int x = Math.max(0, bb.x * scale - margin);
+			int y = Math.max(0, bb.y * scale - margin);
+			Rect window = new Rect(x, y,
+				Math.min(source.cols(), (bb.x + bb.width) * scale + margin) - x,
+				Math.min(source.rows(), (bb.y + bb.height) * scale + margin) - y);
+			addWindow(window);
+		}
+
+		releaseContours(findContoursOutput);
+		for (int i = 0; i < windows.size(); i++) {
+			Rect window = windows.get(i);
+			Mat roi = source.submat(window);
+			try {
+				threshold(roi, config, refine);
+			}
+			finally {
+				roi.release();
+			}
+			traceContours(refine.mask.mat(), config, new Point(window.x, window.y), refineContours);
+			// ownership moves to findContoursOutput, so clear without releasing
+			findContoursOutput.addAll(refineContours);
+			refineContours.clear();
+		}
+	}
 
+	/**
+	 * Adds a window to the list, merging it with every window it overlaps.
+	 */
+	private void addWindow(Rect window) {
+		for (int i = windows.size() - 1; i >= 0; i--) {
+			Rect other = windows.get(i);
+			if (window.x < other.x + other.width && other.x < window.x + window.width
+				&& window.y < other.y + other.height && other.y < window.y + window.height) {
+				int x = Math.min(window.x, other.x);
+				int y = Math.min(window.y, other.y);
+				window = new Rect(x, y,
+					Math.max(window.x + window.width, other.x + other.width) - x,
+					Math.max(window.y + window.height, other.y + other.height) - y);
+				windows.remove(i);
+			}
+		}
+		windows.add(window);
 	}
 
 	/**
-	 * This method is a generated getter for the output of a Blur.
+	 * This method is a generated getter for the output of a Blur. Not
+	 * updated by the tiled threshold, which blurs in strips.
 	 * @return Mat output from Blur.
 	 */
 	public Mat blurOutput() {
-		return blurOutput;
+		return outputs.blurred != null ? outputs.blurred.mat() : new Mat();
 	}
 
 	/**
@@ -87,7 +375,7 @@ public class CardinalPipeline implements VisionPipeline {
 	 * @return Mat output from HSL_Threshold.
 	 */
 	public Mat hslThresholdOutput() {
-		return hslThresholdOutput;
+		return maskOutput();
 	}
 
 	/**
@@ -106,6 +394,59 @@ public class CardinalPipeline implements VisionPipeline {
 		return filterContoursOutput;
 	}
 
+	@Override
+	public Mat maskOutput() {
+		return outputs.mask != null ? outputs.mask.mat() : new Mat();
+	}
+
+	/**
+	 * Adds the minimum area rectangle of every contour that passed the filter.
+	 */
+	@Override
+	public void tapes(List<RotatedRect> tapes) {
+		for (int i = 0; i < filterContoursOutput.size(); i++) {
+			filterContoursOutput.get(i).convertTo(contour2f, CvType.CV_32F);
+			tapes.add(Imgproc.minAreaRect(contour2f));
+		}
+	}
+
+	/**
+	 * Releases the native memory held by the outputs and scratch buffers.
+	 * The pipeline must not be used afterwards.
+	 */
+	@Override
+	public void release() {
+		releaseContours(findContoursOutput);
+		filterContoursOutput.clear();
+		releaseContours(coarseContours);
+		coarseFiltered.clear();
+		for (int level = 0; level < pyramid.length; level++) {
+			MatPool.getInstance().giveBack(pyramid[level]);
+			pyramid[level] = null;
+		}
+		refine.release();
+		outputs.release();
+		tiledThreshold.release();
+		greenThreshold.release();
+		hierarchy.release();
+		contour2f.release();
+	}
+
+	/**
+	 * Releases every contour in the list and clears it.
+	 */
+	private void releaseContours(List<MatOfPoint> contours) {
+		long bytes = 0;
+		for (int i = 0; i < contours.size(); i++) {
+			bytes += contours.get(i).total() * kPointBytes;
+			contours.get(i).release();
+		}
+		contours.clear();
+		if (bytes > 0) {
+			MatPool.getInstance().account(MatPool.Use.CONTOURS, -bytes);
+		}
+	}
+
 
 	/**
 	 * An indication of which type of filter to use for a blur.
@@ -146,25 +487,21 @@ public class CardinalPipeline implements VisionPipeline {
 	 * Softens an image using one of several filters.
 	 * @param input The image on which to perform the blur.
 	 * @param type The blurType to perform.
-	 * @param doubleRadius The radius for the blur.
+	 * @param radius The radius for the blur.
+	 * @param kernelSize The precomputed kernel size for the blurType and radius.
 	 * @param output The image in which to store the output.
 	 */
-	private void blur(Mat input, BlurType type, double doubleRadius,
+	void blur(Mat input, BlurType type, int radius, Size kernelSize,
 		Mat output) {
-		int radius = (int)(doubleRadius + 0.5);
-		int kernelSize;
 		switch(type){
 			case BOX:
-				kernelSize = 2 * radius + 1;
-				Imgproc.blur(input, output, new Size(kernelSize, kernelSize));
+				Imgproc.blur(input, output, kernelSize);
 				break;
 			case GAUSSIAN:
-				kernelSize = 6 * radius + 1;
-				Imgproc.GaussianBlur(input,output, new Size(kernelSize, kernelSize), radius);
+				Imgproc.GaussianBlur(input,output, kernelSize, radius);
 				break;
 			case MEDIAN:
-				kernelSize = 2 * radius + 1;
-				Imgproc.medianBlur(input, output, kernelSize);
+				Imgproc.medianBlur(input, output, (int) kernelSize.width);
 				break;
 			case BILATERAL:
 				Imgproc.bilateralFilter(input, output, -1, radius, radius);
@@ -176,29 +513,39 @@ public class CardinalPipeline implements VisionPipeline {
 	 * Segment an image based on hue, saturation, and luminance ranges.
 	 *
 	 * @param input The image on which to perform the HSL threshold.
-	 * @param hue The min and max hue
-	 * @param sat The min and max saturation
-	 * @param lum The min and max luminance
+	 * @param lower The min hue, luminance and saturation
+	 * @param upper The max hue, luminance and saturation
 	 * @param output The image in which to store the output.
 	 */
-	private void hslThreshold(Mat input, double[] hue, double[] sat, double[] lum,
+	void hslThreshold(Mat input, Scalar lower, Scalar upper,
+		Mat out) {
+		hslThreshold(input, lower, upper, out, out);
+	}
+
+	/**
+	 * Segment an image based on hue, saturation, and luminance ranges, with
+	 * a separate image for the HLS conversion so neither is reallocated.
+	 * @param hls The image in which to store the HLS conversion.
+	 */
+	void hslThreshold(Mat input, Scalar lower, Scalar upper, Mat hls,
 		Mat out) {
-		Imgproc.cvtColor(input, out, Imgproc.COLOR_BGR2HLS);
-		Core.inRange(out, new Scalar(hue[0], lum[0], sat[0]),
-			new Scalar(hue[1], lum[1], sat[1]), out);
+		Imgproc.cvtColor(input, hls, Imgproc.COLOR_BGR2HLS);
+		Core.inRange(hls, lower, upper, out);
 	}
 
 	/**
 	 * Sets the values of pixels in a binary image to their distance to the nearest black pixel.
 	 * @param input The image on which to perform the Distance Transform.
 	 * @param type The Transform.
+	 * @param offset The offset added to every contour point, or null for none.
 	 * @param maskSize the size of the mask.
 	 * @param output The image in which to store the output.
 	 */
-	private void findContours(Mat input, boolean externalOnly,
+	void findContours(Mat input, boolean externalOnly, Point offset,
 		List<MatOfPoint> contours) {
-		Mat hierarchy = new Mat();
-		contours.clear();
+		// the previous frame's contours are owned by the pipeline, free them now
+		// rather than waiting for their finalizers
+		releaseContours(contours);
 		int mode;
 		if (externalOnly) {
 			mode = Imgproc.RETR_EXTERNAL;
@@ -207,58 +554,139 @@ public class CardinalPipeline implements VisionPipeline {
 			mode = Imgproc.RETR_LIST;
 		}
 		int method = Imgproc.CHAIN_APPROX_SIMPLE;
-		Imgproc.findContours(input, contours, hierarchy, mode, method);
+		if (offset != null) {
+			Imgproc.findContours(input, contours, hierarchy, mode, method, offset);
+		}
+		else {
+			Imgproc.findContours(input, contours, hierarchy, mode, method);
+		}
+		long bytes = 0;
+		for (int i = 0; i < contours.size(); i++) {
+			bytes += contours.get(i).total() * kPointBytes;
+		}
+		MatPool.getInstance().account(MatPool.Use.CONTOURS, bytes);
 	}
 
 
 	/**
 	 * Filters out contours that do not meet certain criteria.
+	 *
+	 * <p>The tests run from cheapest to most expensive, so most noise is
+	 * rejected before any per-point work: vertex count, then the bounding box
+	 * size and ratio, then the area. The perimeter and the convex hull are
+	 * only computed when their limits are set. Every rejection is counted by
+	 * reason in rejections().
 	 * @param inputContours is the input list of contours
+	 * @param config holds the minimum and maximum area, perimeter, width,
+	 * height, solidity, vertex count and width to height ratio of a contour
+	 * that will be kept
 	 * @param output is the the output list of contours
-	 * @param minArea is the minimum area of a contour that will be kept
-	 * @param minPerimeter is the minimum perimeter of a contour that will be kept
-	 * @param minWidth minimum width of a contour
-	 * @param maxWidth maximum width
-	 * @param minHeight minimum height
-	 * @param maxHeight maximimum height
-	 * @param Solidity the minimum and maximum solidity of a contour
-	 * @param minVertexCount minimum vertex Count of the contours
-	 * @param maxVertexCount maximum vertex Count
-	 * @param minRatio minimum ratio of width to height
-	 * @param maxRatio maximum ratio of width to height
 	 */
-	private void filterContours(List<MatOfPoint> inputContours, double minArea,
-		double minPerimeter, double minWidth, double maxWidth, double minHeight, double
-		maxHeight, double[] solidity, double maxVertexCount, double minVertexCount, double
-		minRatio, double maxRatio, List<MatOfPoint> output) {
-		final MatOfInt hull = new MatOfInt();
+	void filterContours(List<MatOfPoint> inputContours, PipelineConfig config,
+		List<MatOfPoint> output) {
 		output.clear();
+		final boolean checkPerimeter = config.minPerimeter > 0;
+		final boolean checkSolidity = config.minSolidity > 0 || config.maxSolidity < 100;
 		//operation
 		for (int i = 0; i < inputContours.size(); i++) {
 			final MatOfPoint contour = inputContours.get(i);
+			final int vertices = contour.rows();
+			if (vertices < config.minVertices || vertices > config.maxVertices) {
+				reject(PipelineMetrics.Rejection.VERTICES);
+				continue;
+			}
 			final Rect bb = Imgproc.boundingRect(contour);
-			if (bb.width < minWidth || bb.width > maxWidth) continue;
-			if (bb.height < minHeight || bb.height > maxHeight) continue;
-			final double area = Imgproc.contourArea(contour);
-			if (area < minArea) continue;
-			if (Imgproc.arcLength(new MatOfPoint2f(contour.toArray()), true) < minPerimeter) continue;
-			Imgproc.convexHull(contour, hull);
-			MatOfPoint mopHull = new MatOfPoint();
-			mopHull.create((int) hull.size().height, 1, CvType.CV_32SC2);
-			for (int j = 0; j < hull.size().height; j++) {
-				int index = (int)hull.get(j, 0)[0];
-				double[] point = new double[] { contour.get(index, 0)[0], contour.get(index, 0)[1]};
-				mopHull.put(j, 0, point);
+			if (bb.width < config.minWidth || bb.width > config.maxWidth
+				|| bb.height < config.minHeight || bb.height > config.maxHeight) {
+				reject(PipelineMetrics.Rejection.SIZE);
+				continue;
 			}
-			final double solid = 100 * area / Imgproc.contourArea(mopHull);
-			if (solid < solidity[0] || solid > solidity[1]) continue;
-			if (contour.rows() < minVertexCount || contour.rows() > maxVertexCount)	continue;
 			final double ratio = bb.width / (double)bb.height;
-			if (ratio < minRatio || ratio > maxRatio) continue;
+			if (ratio < config.minRatio || ratio > config.maxRatio) {
+				reject(PipelineMetrics.Rejection.RATIO);
+				continue;
+			}
+			final double area = Imgproc.contourArea(contour);
+			if (area < config.minArea) {
+				reject(PipelineMetrics.Rejection.AREA);
+				continue;
+			}
+			if (checkPerimeter) {
+				contour.convertTo(contour2f, CvType.CV_32F);
+				if (Imgproc.arcLength(contour2f, true) < config.minPerimeter) {
+					reject(PipelineMetrics.Rejection.PERIMETER);
+					continue;
+				}
+			}
+			if (checkSolidity) {
+				final double solid = 100 * area / hullArea(contour, vertices);
+				if (solid < config.minSolidity || solid > config.maxSolidity) {
+					reject(PipelineMetrics.Rejection.SOLIDITY);
+					continue;
+				}
+			}
 			output.add(contour);
 		}
 	}
 
+	private void reject(PipelineMetrics.Rejection reason) {
+		rejections[reason.ordinal()]++;
+	}
+
+	/**
+	 * The area of the convex hull of a contour. The points are read with one
+	 * bulk native call and the hull is built in Java with the monotone chain
+	 * algorithm, instead of convexHull, a copy of the hull points and a
+	 * second contourArea.
+	 * @param contour the contour
+	 * @param vertices the number of points of the contour
+	 */
+	private double hullArea(MatOfPoint contour, int vertices) {
+		if (contourPoints.length < 2 * vertices) {
+			contourPoints = new int[2 * vertices];
+			sortedPoints = new long[vertices];
+			hullPoints = new long[2 * vertices];
+		}
+		contour.get(0, 0, contourPoints);
+		// coordinates are never negative, so the packed keys sort by x, then y
+		for (int j = 0; j < vertices; j++) {
+			sortedPoints[j] = ((long) contourPoints[2 * j] << 32) | contourPoints[2 * j + 1];
+		}
+		Arrays.sort(sortedPoints, 0, vertices);
+
+		int size = 0;
+		for (int j = 0; j < vertices; j++) {
+			while (size >= 2 && cross(hullPoints[size - 2], hullPoints[size - 1], sortedPoints[j]) <= 0) {
+				size--;
+			}
+			hullPoints[size++] = sortedPoints[j];
+		}
+		for (int j = vertices - 2, lower = size + 1; j >= 0; j--) {
+			while (size >= lower && cross(hullPoints[size - 2], hullPoints[size - 1], sortedPoints[j]) <= 0) {
+				size--;
+			}
+			hullPoints[size++] = sortedPoints[j];
+		}
+
+		// shoelace formula, the last point repeats the first
+		long twiceArea = 0;
+		for (int j = 0; j < size - 1; j++) {
+			twiceArea += x(hullPoints[j]) * y(hullPoints[j + 1]) - x(hullPoints[j + 1]) * y(hullPoints[j]);
+		}
+		return Math.abs(twiceArea) / 2.0;
+	}
+
+	private static long cross(long o, long a, long b) {
+		return (x(a) - x(o)) * (y(b) - y(o)) - (y(a) - y(o)) * (x(b) - x(o));
+	}
+
+	private static long x(long point) {
+		return point >> 32;
+	}
+
+	private static long y(long point) {
+		return point & 0xffffffffL;
+	}
 
 
 
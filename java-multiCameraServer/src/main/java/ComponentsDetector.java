@@ -0,0 +1,249 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.RotatedRect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Tape detection with connected components instead of contours.
+ *
+ * <p>The frame is blurred and thresholded by the same steps as
+ * {@link CardinalPipeline}. connectedComponentsWithStats then labels the
+ * mask and yields the area and bounding box of every blob in one call,
+ * without tracing contours, so the size, ratio and area filters cost
+ * nothing per point. Only the blobs that pass get their orientation and
+ * size from the second order moments of their pixels, read from the label
+ * image in bulk, only within their bounding box, so the label image is
+ * never copied whole.
+ *
+ * <p>Without contours there is no vertex count or perimeter, so those limits
+ * are ignored. Solidity is measured against the rectangle with the same
+ * moments as the blob instead of the convex hull, which is the same for the
+ * rectangular tapes. The pyramid mode is not used.
+ */
+public class ComponentsDetector implements TapeDetector {
+  private static final int kStats = 5;
+
+  // blur and threshold steps, settings, search window and timings
+  private final CardinalPipeline pipeline;
+
+  private MatPool.Lease labels;
+  private final Mat stats = new Mat();
+  private final Mat centroids = new Mat();
+  private final ArrayList<RotatedRect> found = new ArrayList<>();
+  private int[] statValues = new int[0];
+  private int[] labelValues = new int[0];
+  private boolean[] keep = new boolean[0];
+
+  public ComponentsDetector(PipelineConfig config) {
+    pipeline = new CardinalPipeline(config);
+  }
+
+  @Override
+  public void process(Mat frame) {
+    PipelineConfig config = pipeline.getConfig();
+    Point offset = pipeline.processMask(frame, config);
+    Mat mask = pipeline.maskOutput();
+    long[] stageNanos = pipeline.stageNanos();
+
+    labels = MatPool.getInstance().renew(labels, mask.rows(), mask.cols(), CvType.CV_32SC1,
+        MatPool.Use.COMPONENTS);
+    long start = System.nanoTime();
+    int count = Imgproc.connectedComponentsWithStats(mask, labels.mat(), stats, centroids, 8,
+        CvType.CV_32S);
+    long end = System.nanoTime();
+    stageNanos[PipelineMetrics.Stage.FIND_CONTOURS.ordinal()] += end - start;
+
+    filterComponents(config, count, offset);
+    stageNanos[PipelineMetrics.Stage.FILTER_CONTOURS.ordinal()] += System.nanoTime() - end;
+  }
+
+  /**
+   * Filter the components on their stats, then measure the ones that pass.
+   * Label 0 is the background.
+   */
+  private void filterComponents(PipelineConfig config, int count, Point offset) {
+    found.clear();
+    if (statValues.length < kStats * count) {
+      statValues = new int[kStats * count];
+      keep = new boolean[count];
+    }
+    stats.get(0, 0, statValues);
+
+    long[] rejections = pipeline.rejections();
+    int kept = 0;
+    for (int label = 1; label < count; label++) {
+      int width = statValues[kStats * label + Imgproc.CC_STAT_WIDTH];
+      int height = statValues[kStats * label + Imgproc.CC_STAT_HEIGHT];
+      int area = statValues[kStats * label + Imgproc.CC_STAT_AREA];
+      keep[label] = false;
+      if (width < config.minWidth || width > config.maxWidth
+          || height < config.minHeight || height > config.maxHeight) {
+        rejections[PipelineMetrics.Rejection.SIZE.ordinal()]++;
+        continue;
+      }
+      double ratio = width / (double) height;
+      if (ratio < config.minRatio || ratio > config.maxRatio) {
+        rejections[PipelineMetrics.Rejection.RATIO.ordinal()]++;
+        continue;
+      }
+      if (area < config.minArea) {
+        rejections[PipelineMetrics.Rejection.AREA.ordinal()]++;
+        continue;
+      }
+      keep[label] = true;
+      kept++;
+    }
+    if (kept == 0) {
+      return;
+    }
+
+    boolean checkSolidity = config.minSolidity > 0 || config.maxSolidity < 100;
+    for (int label = 1; label < count; label++) {
+      if (!keep[label]) {
+        continue;
+      }
+      RotatedRect tape = measure(label);
+      double solidity = Math.min(100,
+          100 * statValues[kStats * label + Imgproc.CC_STAT_AREA] / tape.size.area());
+      if (checkSolidity && (solidity < config.minSolidity || solidity > config.maxSolidity)) {
+        rejections[PipelineMetrics.Rejection.SOLIDITY.ordinal()]++;
+        continue;
+      }
+      if (offset != null) {
+        tape.center.x += offset.x;
+        tape.center.y += offset.y;
+      }
+      found.add(tape);
+    }
+  }
+
+  /**
+   * The rectangle with the same centroid and second order moments as the
+   * pixels of a component, within its bounding box.
+   */
+  private RotatedRect measure(int label) {
+    int left = statValues[kStats * label + Imgproc.CC_STAT_LEFT];
+    int top = statValues[kStats * label + Imgproc.CC_STAT_TOP];
+    int boxWidth = statValues[kStats * label + Imgproc.CC_STAT_WIDTH];
+    int boxHeight = statValues[kStats * label + Imgproc.CC_STAT_HEIGHT];
+
+    // only the labels in the bounding box, row by row into labelValues
+    if (labelValues.length < boxWidth * boxHeight) {
+      labelValues = new int[boxWidth * boxHeight];
+    }
+    Mat box = labels.mat().submat(top, top + boxHeight, left, left + boxWidth);
+    box.get(0, 0, labelValues);
+    box.release();
+
+    // relative to the box corner, so the sums stay small
+    long n = 0;
+    long sumX = 0;
+    long sumY = 0;
+    long sumXX = 0;
+    long sumYY = 0;
+    long sumXY = 0;
+    for (int dy = 0; dy < boxHeight; dy++) {
+      int row = dy * boxWidth;
+      for (int dx = 0; dx < boxWidth; dx++) {
+        if (labelValues[row + dx] == label) {
+          n++;
+          sumX += dx;
+          sumY += dy;
+          sumXX += dx * dx;
+          sumYY += dy * dy;
+          sumXY += dx * dy;
+        }
+      }
+    }
+
+    double cx = sumX / (double) n;
+    double cy = sumY / (double) n;
+    double mu20 = sumXX / (double) n - cx * cx;
+    double mu02 = sumYY / (double) n - cy * cy;
+    double mu11 = sumXY / (double) n - cx * cy;
+    double mean = (mu20 + mu02) / 2;
+    double spread = Math.sqrt((mu20 - mu02) * (mu20 - mu02) / 4 + mu11 * mu11);
+    // a run of k pixels has a variance of (k * k - 1) / 12
+    double major = Math.sqrt(12 * (mean + spread) + 1);
+    double minor = Math.sqrt(12 * Math.max(0, mean - spread) + 1);
+
+    // direction of the major axis, then into the minAreaRect range [-90, 0)
+    double angle = Math.toDegrees(0.5 * Math.atan2(2 * mu11, mu20 - mu02));
+    double width = major;
+    double height = minor;
+    while (angle >= 0) {
+      angle -= 90;
+      double swap = width;
+      width = height;
+      height = swap;
+    }
+    while (angle < -90) {
+      angle += 90;
+      double swap = width;
+      width = height;
+      height = swap;
+    }
+    return new RotatedRect(new Point(left + cx, top + cy), new Size(width, height), angle);
+  }
+
+  @Override
+  public void tapes(List<RotatedRect> tapes) {
+    tapes.addAll(found);
+  }
+
+  @Override
+  public Mat maskOutput() {
+    return pipeline.maskOutput();
+  }
+
+  @Override
+  public void setConfig(PipelineConfig config) {
+    pipeline.setConfig(config);
+  }
+
+  @Override
+  public PipelineConfig getConfig() {
+    return pipeline.getConfig();
+  }
+
+  @Override
+  public void setSearchWindow(Rect window) {
+    pipeline.setSearchWindow(window);
+  }
+
+  @Override
+  public Rect getSearchWindow() {
+    return pipeline.getSearchWindow();
+  }
+
+  @Override
+  public long[] stageNanos() {
+    return pipeline.stageNanos();
+  }
+
+  @Override
+  public long[] rejections() {
+    return pipeline.rejections();
+  }
+
+  @Override
+  public void clearStageNanos() {
+    pipeline.clearStageNanos();
+  }
+
+  @Override
+  public void release() {
+    pipeline.release();
+    MatPool.getInstance().giveBack(labels);
+    labels = null;
+    stats.release();
+    centroids.release();
+    found.clear();
+  }
+}
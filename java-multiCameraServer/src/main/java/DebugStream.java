@@ -0,0 +1,157 @@
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import edu.wpi.cscore.CvSource;
+import edu.wpi.cscore.MjpegServer;
+import edu.wpi.cscore.VideoMode;
+import edu.wpi.first.cameraserver.CameraServer;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.RotatedRect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * A second MJPEG stream of a camera showing what the pipeline saw: the
+ * frame downscaled, with the tapes found outlined and a mark on every goal
+ * target.
+ *
+ * <p>The stream has its own resolution, frame rate and JPEG quality, all
+ * usually well below the camera's. Frames are only drawn while a client is
+ * connected, and at most at the stream's frame rate; otherwise
+ * {@link #offer} returns at once, and cscore encodes nothing.
+ *
+ * <p>Settings come from the optional {@code "debug stream"} object of a
+ * camera in frc.json:
+ * <pre>
+ *   "width", "height": the stream resolution, 160x120 if unspecified
+ *   "fps": the most frames per second sent, 10 if unspecified
+ *   "quality": the JPEG quality 0-100, 30 if unspecified
+ * </pre>
+ */
+public class DebugStream {
+  private static final Scalar kTapeColor = new Scalar(0, 255, 255);
+  private static final Scalar kTargetColor = new Scalar(255, 0, 255);
+
+  private final CvSource source;
+  private final Size size;
+  private final long periodMicros;
+  private final Mat scaled = new Mat();
+  private final Point[] corners = new Point[4];
+  private final ReentrantLock lock = new ReentrantLock();
+  private volatile long lastFrameTime;
+
+  /**
+   * Create the stream and its server.
+   * @param name the name of the stream
+   * @param width the stream width
+   * @param height the stream height
+   * @param fps the most frames per second sent
+   * @param quality the JPEG quality, 0-100
+   */
+  public DebugStream(String name, int width, int height, int fps, int quality) {
+    source = new CvSource(name, VideoMode.PixelFormat.kMJPEG, width, height, fps);
+    MjpegServer server = CameraServer.getInstance().startAutomaticCapture(source);
+    server.setDefaultCompression(quality);
+    server.setCompression(quality);
+    size = new Size(width, height);
+    periodMicros = 1000000L / Math.max(1, fps);
+  }
+
+  /**
+   * Create the debug stream of a camera from its "debug stream" settings.
+   * @param cameraName the name of the camera, the stream is named after it
+   * @param settings the settings, or null for no stream
+   * @return the stream, or null if there are no settings
+   * @throws IllegalArgumentException if a setting is unknown or out of range
+   */
+  public static DebugStream fromJson(String cameraName, JsonObject settings) {
+    if (settings == null) {
+      return null;
+    }
+    for (Map.Entry<String, JsonElement> entry : settings.entrySet()) {
+      switch (entry.getKey()) {
+        case "width": case "height": case "fps": case "quality":
+          break;
+        default:
+          throw new IllegalArgumentException("unknown debug stream setting '" + entry.getKey() + "'");
+      }
+    }
+    int width = settings.has("width") ? settings.get("width").getAsInt() : 160;
+    int height = settings.has("height") ? settings.get("height").getAsInt() : 120;
+    int fps = settings.has("fps") ? settings.get("fps").getAsInt() : 10;
+    int quality = settings.has("quality") ? settings.get("quality").getAsInt() : 30;
+    if (width <= 0 || height <= 0 || fps <= 0 || quality < 0 || quality > 100) {
+      throw new IllegalArgumentException("debug stream needs a positive size and fps and a"
+          + " quality of 0 to 100");
+    }
+    return new DebugStream(cameraName + " processed", width, height, fps, quality);
+  }
+
+  /**
+   * Whether a frame captured at this time would be sent.
+   */
+  private boolean wants(long frameTime) {
+    return source.isEnabled() && frameTime - lastFrameTime >= periodMicros;
+  }
+
+  /**
+   * Send an annotated frame if a client is connected and the last frame sent
+   * is old enough. Called from the processing workers; a frame offered while
+   * another is being drawn is skipped.
+   * @param frame the BGR frame, read only
+   * @param frameTime the capture time of the frame in microseconds
+   * @param tapes the tapes found in the frame
+   * @param targets the goal targets found in the frame
+   */
+  public void offer(Mat frame, long frameTime, List<RotatedRect> tapes,
+      List<GoalTarget> targets) {
+    if (!wants(frameTime) || !lock.tryLock()) {
+      return;
+    }
+    try {
+      if (frameTime - lastFrameTime < periodMicros) {
+        return;
+      }
+      lastFrameTime = frameTime;
+
+      double scaleX = size.width / frame.cols();
+      double scaleY = size.height / frame.rows();
+      Imgproc.resize(frame, scaled, size, 0, 0, Imgproc.INTER_NEAREST);
+      for (RotatedRect tape : tapes) {
+        tape.points(corners);
+        for (int i = 0; i < 4; i++) {
+          Point from = corners[i];
+          Point to = corners[(i + 1) % 4];
+          Imgproc.line(scaled, new Point(from.x * scaleX, from.y * scaleY),
+              new Point(to.x * scaleX, to.y * scaleY), kTapeColor, 1);
+        }
+      }
+      for (GoalTarget target : targets) {
+        Imgproc.drawMarker(scaled, new Point(target.centerX() * scaleX, target.centerY() * scaleY),
+            kTargetColor, Imgproc.MARKER_CROSS, 8, 1, Imgproc.LINE_8);
+      }
+      source.putFrame(scaled);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Releases the frame buffer.
+   */
+  public void release() {
+    lock.lock();
+    try {
+      scaled.release();
+    } finally {
+      lock.unlock();
+    }
+  }
+}
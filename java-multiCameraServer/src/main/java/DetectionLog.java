@@ -0,0 +1,452 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Record of every published frame of every camera in a memory mapped ring
+ * file, for looking at what the vision system saw after a match. Convert it
+ * to CSV with {@link DetectionLogReader}.
+ *
+ * <p>The publish stage only encodes each frame into a record in memory; a
+ * writer thread copies the records into the mapped file and forces it to
+ * storage every second, so a page fault or a slow SD card never stalls the
+ * cameras. If the writer falls behind by more records than it buffers,
+ * records are dropped and counted instead. Frames in which the targets of
+ * the camera disappeared can also be saved as small JPEG thumbnails, again
+ * encoded by the writer thread. A thumbnail travels with its frame's result
+ * and is only saved if the frame is recorded, so every thumbnail has its
+ * record.
+ *
+ * <p>The file is reused across restarts if its layout matches, so the
+ * records of a match survive a reboot of the Pi. The layout, big endian:
+ * <pre>
+ *   header, kHeaderBytes:
+ *   0       8     magic "CVDETLOG"
+ *   8       4     layout version, currently 1
+ *   12      4     record size
+ *   16      4     record capacity N
+ *   20      4     number of cameras
+ *   24      8     records written, the sequence number of the last record
+ *   32      8     records dropped because the writer fell behind
+ *   40      64*16 camera names, UTF-8, zero padded
+ *   1064    4*16  next thumbnail number per camera, so a restart does not
+ *                 overwrite the thumbnails of the records it keeps
+ *
+ *   record, kRecordBytes, record s at kHeaderBytes + ((s - 1) % N) * kRecordBytes:
+ *   0       8     sequence number, from 1, 0 for an unused slot
+ *   8       8     frame id
+ *   16      8     capture time, microseconds in the NetworkTables time base
+ *   24      8     publish time, same time base
+ *   32      1     camera index
+ *   33      1     number of targets found
+ *   34      1     flags, bit 0: published (not unchanged), bit 1: thumbnail saved
+ *   35      1     thumbnail number, the file is "&lt;camera&gt;-&lt;number&gt;.jpg"
+ *   36      2     tapes found
+ *   38      2*6   contours rejected per {@link PipelineMetrics.Rejection}
+ *   50      2     unused
+ *   52      4*9   microseconds per {@link PipelineMetrics.Stage}
+ *   88      24*4  per target, up to 4, float32: center x, center y, width,
+ *                 and the xOffset, distance and angle published for it
+ *   184     8     unused
+ * </pre>
+ *
+ * <p>Settings come from the optional top level {@code "detection log"}
+ * object in frc.json:
+ * <pre>
+ *   "file": the path of the ring file
+ *   "records": the records the file holds, 65536 if unspecified, at most
+ *       kMaxRecords so the file fits in one mapping
+ *   "thumbnails": the directory for dropout thumbnails, none if unspecified
+ * </pre>
+ */
+public class DetectionLog {
+  public static final int kVersion = 1;
+  public static final byte[] kMagic = "CVDETLOG".getBytes(StandardCharsets.US_ASCII);
+  public static final int kHeaderBytes = 4096;
+  public static final int kRecordBytes = 192;
+  public static final int kMaxCameras = 16;
+  public static final int kNameBytes = 64;
+  public static final int kMaxTargets = 4;
+  public static final int kFlagPublished = 1;
+  public static final int kFlagThumbnail = 2;
+  public static final int kMaxThumbnails = 64;
+  public static final int kMaxRecords = (Integer.MAX_VALUE - kHeaderBytes) / kRecordBytes;
+
+  static final int kRecordsWrittenOffset = 24;
+  static final int kRecordsDroppedOffset = 32;
+  static final int kNamesOffset = 40;
+  static final int kThumbnailNumbersOffset = kNamesOffset + kMaxCameras * kNameBytes;
+  static final int kRejectionsOffset = 38;
+  static final int kStagesOffset = 52;
+  static final int kTargetsOffset = 88;
+  static final int kTargetBytes = 24;
+  // the record has room for this many, bump kVersion when the enums change
+  static final int kRejections = 6;
+  static final int kStages = 9;
+
+  private static final int kDefaultRecords = 65536;
+  private static final int kStagedRecords = 512;
+  private static final long kWriteMillis = 20;
+  private static final long kForceMillis = 1000;
+  private static final int kThumbnailWidth = 160;
+  private static final int kThumbnailBuffers = 2;
+  private static final long kThumbnailPeriodMicros = 500000;
+
+  /**
+   * A thumbnail buffer, filled by a worker, carried by the frame's
+   * {@link FrameResult} and written by the writer thread.
+   */
+  public static final class Thumbnail {
+    private final DetectionLog log;
+    private final Mat image = new Mat();
+    private int camera;
+    private int number;
+
+    Thumbnail(DetectionLog log) {
+      this.log = log;
+    }
+
+    /**
+     * Give the buffer back unsaved, e.g. when its frame is not recorded.
+     */
+    public void discard() {
+      log.freeThumbnails.offer(this);
+    }
+  }
+
+  private final FileChannel channel;
+  private final MappedByteBuffer mapped;
+  private final int capacity;
+  private final File thumbnailDirectory;
+  private final String[] cameras = new String[kMaxCameras];
+  private int cameraCount;
+
+  // written by the publish stage, read by the writer thread
+  private final ByteBuffer staging =
+      ByteBuffer.allocate(kStagedRecords * kRecordBytes).order(ByteOrder.BIG_ENDIAN);
+  private volatile long staged;
+  private volatile long written;
+  private volatile long dropped;
+  private long droppedBefore;
+
+  private final BlockingQueue<Thumbnail> freeThumbnails =
+      new ArrayBlockingQueue<>(kThumbnailBuffers);
+  private final BlockingQueue<Thumbnail> pendingThumbnails =
+      new ArrayBlockingQueue<>(kThumbnailBuffers);
+  private final AtomicLongArray lastThumbnailTime = new AtomicLongArray(kMaxCameras);
+  // the next thumbnail number per camera, only used by the publish stage
+  private final int[] thumbnailCount = new int[kMaxCameras];
+
+  private final Thread writer;
+  private volatile boolean running = true;
+
+  /**
+   * Open or create the ring file and start the writer thread.
+   * @param file the ring file
+   * @param capacity the number of records the file holds
+   * @param thumbnailDirectory the directory for dropout thumbnails, or null for none
+   * @throws IllegalArgumentException if the capacity is not 1 to {@link #kMaxRecords}
+   * @throws IOException if the file cannot be mapped
+   */
+  public DetectionLog(File file, int capacity, File thumbnailDirectory) throws IOException {
+    if (capacity <= 0 || capacity > kMaxRecords) {
+      throw new IllegalArgumentException("detection log records must be 1 to " + kMaxRecords);
+    }
+    this.capacity = capacity;
+    this.thumbnailDirectory = thumbnailDirectory;
+    long size = recordOffset(capacity);
+    channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    boolean reuse = channel.size() == size;
+    mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    mapped.order(ByteOrder.BIG_ENDIAN);
+    if (!reuse || !matchesLayout(mapped, capacity)) {
+      writeHeader();
+    }
+    staged = mapped.getLong(kRecordsWrittenOffset);
+    written = staged;
+    droppedBefore = mapped.getLong(kRecordsDroppedOffset);
+
+    if (thumbnailDirectory != null) {
+      thumbnailDirectory.mkdirs();
+      for (int i = 0; i < kThumbnailBuffers; i++) {
+        freeThumbnails.add(new Thumbnail(this));
+      }
+    }
+
+    writer = new Thread(this::write, "DetectionLog");
+    writer.setDaemon(true);
+    writer.setPriority(Thread.MIN_PRIORITY);
+    writer.start();
+  }
+
+  /**
+   * Open the detection log from its "detection log" settings.
+   * @param settings the settings, or null for no log
+   * @return the log, or null if there are no settings
+   * @throws IllegalArgumentException if a setting is unknown or out of range
+   * @throws IOException if the file cannot be mapped
+   */
+  public static DetectionLog fromJson(JsonObject settings) throws IOException {
+    if (settings == null) {
+      return null;
+    }
+    for (Map.Entry<String, JsonElement> entry : settings.entrySet()) {
+      switch (entry.getKey()) {
+        case "file": case "records": case "thumbnails":
+          break;
+        default:
+          throw new IllegalArgumentException("unknown detection log setting '" + entry.getKey()
+              + "'");
+      }
+    }
+    if (!settings.has("file")) {
+      throw new IllegalArgumentException("detection log needs a \"file\"");
+    }
+    int records = settings.has("records") ? settings.get("records").getAsInt() : kDefaultRecords;
+    if (records <= 0 || records > kMaxRecords) {
+      throw new IllegalArgumentException("detection log records must be 1 to " + kMaxRecords);
+    }
+    File thumbnails = settings.has("thumbnails")
+        ? new File(settings.get("thumbnails").getAsString()) : null;
+    return new DetectionLog(new File(settings.get("file").getAsString()), records, thumbnails);
+  }
+
+  /**
+   * Whether the header of a mapped file is of this layout and capacity.
+   */
+  static boolean matchesLayout(ByteBuffer file, int capacity) {
+    for (int i = 0; i < kMagic.length; i++) {
+      if (file.get(i) != kMagic[i]) {
+        return false;
+      }
+    }
+    return file.getInt(8) == kVersion && file.getInt(12) == kRecordBytes
+        && (capacity <= 0 || file.getInt(16) == capacity);
+  }
+
+  /**
+   * The file offset of a record slot, or of the end of the file for the
+   * capacity. Only fits an int for a capacity of at most kMaxRecords.
+   */
+  static long recordOffset(long slot) {
+    return kHeaderBytes + slot * kRecordBytes;
+  }
+
+  /**
+   * Write a fresh header and mark every record unused.
+   */
+  private void writeHeader() {
+    for (int i = 0; i < kHeaderBytes; i++) {
+      mapped.put(i, i < kMagic.length ? kMagic[i] : 0);
+    }
+    for (int record = 0; record < capacity; record++) {
+      mapped.putLong((int) recordOffset(record), 0);
+    }
+    mapped.putInt(8, kVersion);
+    mapped.putInt(12, kRecordBytes);
+    mapped.putInt(16, capacity);
+  }
+
+  /**
+   * Add a camera, before the cameras are started.
+   * @return the index of the camera in the records
+   * @throws IllegalArgumentException if there are too many cameras
+   */
+  public synchronized int addCamera(String name) {
+    if (cameraCount == kMaxCameras) {
+      throw new IllegalArgumentException("detection log holds at most " + kMaxCameras
+          + " cameras");
+    }
+    byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+    int offset = kNamesOffset + cameraCount * kNameBytes;
+    for (int i = 0; i < kNameBytes; i++) {
+      mapped.put(offset + i, i < bytes.length && i < kNameBytes - 1 ? bytes[i] : 0);
+    }
+    cameras[cameraCount] = name;
+    thumbnailCount[cameraCount] = Math.floorMod(
+        mapped.getInt(kThumbnailNumbersOffset + 4 * cameraCount), kMaxThumbnails);
+    mapped.putInt(20, cameraCount + 1);
+    return cameraCount++;
+  }
+
+  /**
+   * Record a published frame, and queue its thumbnail if it has one. Never
+   * blocks; called only from the publish stage.
+   * @param camera the index of the camera from {@link #addCamera}
+   * @param result the frame; a thumbnail that is queued is taken from it
+   * @param published whether the frame was published or skipped as unchanged
+   * @param publishTime the publish time in the NetworkTables time base
+   */
+  public void record(int camera, FrameResult result, boolean published, long publishTime) {
+    if (staged - written >= kStagedRecords) {
+      // only this thread writes the count
+      dropped++;
+      return;
+    }
+    long next = staged + 1;
+    int base = (int) ((next - 1) % kStagedRecords) * kRecordBytes;
+    ByteBuffer buffer = staging;
+    buffer.putLong(base, next);
+    buffer.putLong(base + 8, result.frameId);
+    buffer.putLong(base + 16, result.frameTime);
+    buffer.putLong(base + 24, publishTime);
+    buffer.put(base + 32, (byte) camera);
+    buffer.put(base + 33, (byte) Math.min(result.count, 255));
+    Thumbnail thumbnail = result.thumbnail;
+    int flags = (published ? kFlagPublished : 0) | (thumbnail != null ? kFlagThumbnail : 0);
+    buffer.put(base + 34, (byte) flags);
+    if (thumbnail != null) {
+      thumbnail.camera = camera;
+      thumbnail.number = thumbnailCount[camera];
+      thumbnailCount[camera] = (thumbnail.number + 1) % kMaxThumbnails;
+      buffer.put(base + 35, (byte) thumbnail.number);
+      // there are as many pending slots as buffers, so this always fits
+      pendingThumbnails.offer(thumbnail);
+      result.thumbnail = null;
+    } else {
+      buffer.put(base + 35, (byte) 0);
+    }
+    buffer.putShort(base + 36, (short) Math.min(result.tapes, 0xffff));
+    for (int i = 0; i < kRejections; i++) {
+      buffer.putShort(base + kRejectionsOffset + 2 * i,
+          (short) Math.min(result.rejections[i], 0xffff));
+    }
+    for (int i = 0; i < kStages; i++) {
+      long micros = i == PipelineMetrics.Stage.END_TO_END.ordinal()
+          ? publishTime - result.frameTime : result.stageNanos[i] / 1000;
+      buffer.putInt(base + kStagesOffset + 4 * i, (int) Math.min(micros, Integer.MAX_VALUE));
+    }
+    int offset = base + kTargetsOffset;
+    for (int i = 0; i < kMaxTargets; i++, offset += kTargetBytes) {
+      boolean present = i < result.count;
+      buffer.putFloat(offset, present ? (float) result.centerX[i] : Float.NaN);
+      buffer.putFloat(offset + 4, present ? (float) result.centerY[i] : Float.NaN);
+      buffer.putFloat(offset + 8, present ? (float) result.targetWidth[i] : Float.NaN);
+      buffer.putFloat(offset + 12, present ? (float) result.xOffset[i] : Float.NaN);
+      buffer.putFloat(offset + 16, present ? (float) result.distance[i] : Float.NaN);
+      buffer.putFloat(offset + 20, present ? (float) result.angle[i] : Float.NaN);
+    }
+    staged = next;
+  }
+
+  /**
+   * Take a thumbnail of a frame in which the targets disappeared, to be
+   * saved by {@link #record} or given back with {@link Thumbnail#discard}.
+   * Never blocks; at most one thumbnail per camera every half second is
+   * taken.
+   * @param camera the index of the camera from {@link #addCamera}
+   * @param frame the BGR frame, read only
+   * @param frameTime the capture time of the frame in microseconds
+   * @return the thumbnail, or null if none was taken
+   */
+  public Thumbnail takeThumbnail(int camera, Mat frame, long frameTime) {
+    if (thumbnailDirectory == null) {
+      return null;
+    }
+    long last = lastThumbnailTime.get(camera);
+    if (frameTime - last < kThumbnailPeriodMicros
+        || !lastThumbnailTime.compareAndSet(camera, last, frameTime)) {
+      return null;
+    }
+    Thumbnail thumbnail = freeThumbnails.poll();
+    if (thumbnail == null) {
+      return null;
+    }
+    int height = Math.max(1, frame.rows() * kThumbnailWidth / Math.max(1, frame.cols()));
+    Imgproc.resize(frame, thumbnail.image, new Size(kThumbnailWidth, height), 0, 0,
+        Imgproc.INTER_NEAREST);
+    return thumbnail;
+  }
+
+  /**
+   * The writer thread: copies staged records into the file and writes the
+   * thumbnails.
+   */
+  private void write() {
+    ByteBuffer file = mapped.duplicate();
+    long lastForce = System.currentTimeMillis();
+    while (running) {
+      try {
+        Thread.sleep(kWriteMillis);
+      } catch (InterruptedException ex) {
+        break;
+      }
+      flushStaged(file);
+
+      Thumbnail thumbnail;
+      while ((thumbnail = pendingThumbnails.poll()) != null) {
+        File path = new File(thumbnailDirectory, cameras[thumbnail.camera] + "-"
+            + thumbnail.number + ".jpg");
+        Imgcodecs.imwrite(path.getPath(), thumbnail.image);
+        mapped.putInt(kThumbnailNumbersOffset + 4 * thumbnail.camera,
+            (thumbnail.number + 1) % kMaxThumbnails);
+        freeThumbnails.offer(thumbnail);
+      }
+
+      long now = System.currentTimeMillis();
+      if (now - lastForce >= kForceMillis) {
+        lastForce = now;
+        mapped.force();
+      }
+    }
+    flushStaged(file);
+    mapped.force();
+  }
+
+  /**
+   * Copy the staged records into the file and update its header.
+   */
+  private void flushStaged(ByteBuffer file) {
+    long last = staged;
+    long next = written;
+    if (next == last) {
+      return;
+    }
+    byte[] records = staging.array();
+    while (next < last) {
+      next++;
+      int from = (int) ((next - 1) % kStagedRecords) * kRecordBytes;
+      file.position((int) recordOffset((next - 1) % capacity));
+      file.put(records, from, kRecordBytes);
+    }
+    mapped.putLong(kRecordsWrittenOffset, last);
+    mapped.putLong(kRecordsDroppedOffset, droppedBefore + dropped);
+    written = last;
+  }
+
+  /**
+   * Write the remaining records, stop the writer thread and close the file.
+   */
+  public void close() {
+    running = false;
+    try {
+      writer.join(1000);
+      channel.close();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    } catch (IOException ex) {
+      System.err.println("could not close the detection log: " + ex);
+    }
+    for (Thumbnail thumbnail : freeThumbnails) {
+      thumbnail.image.release();
+    }
+  }
+}
@@ -0,0 +1,147 @@
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * Converts a {@link DetectionLog} ring file to CSV, oldest record first.
+ *
+ * <pre>
+ *   java -cp java-multiCameraServer-all.jar DetectionLogReader &lt;log file&gt; [output]
+ * </pre>
+ *
+ * <p>Without an output file the CSV is written to stdout. Times are in
+ * microseconds, the capture and publish times in the NetworkTables time
+ * base like the "timestamp" entry; target columns of absent targets are
+ * empty. Needs no OpenCV, so it also runs on a laptop with a copy of the
+ * file.
+ */
+public final class DetectionLogReader {
+  private DetectionLogReader() {
+  }
+
+  /**
+   * Main.
+   */
+  public static void main(String... args) throws IOException {
+    if (args.length < 1 || args.length > 2) {
+      System.err.println("usage: DetectionLogReader <log file> [output]");
+      System.exit(2);
+    }
+
+    ByteBuffer file;
+    try (FileChannel channel = FileChannel.open(Paths.get(args[0]), StandardOpenOption.READ)) {
+      file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    file.order(ByteOrder.BIG_ENDIAN);
+    if (file.capacity() < DetectionLog.kHeaderBytes || !DetectionLog.matchesLayout(file, 0)) {
+      System.err.println("'" + args[0] + "' is not a detection log of layout version "
+          + DetectionLog.kVersion);
+      System.exit(1);
+    }
+    int capacity = file.getInt(16);
+    if (capacity <= 0 || file.capacity() < DetectionLog.recordOffset(capacity)) {
+      System.err.println("'" + args[0] + "' is truncated");
+      System.exit(1);
+    }
+    String[] cameras = new String[file.getInt(20)];
+    for (int i = 0; i < cameras.length; i++) {
+      cameras[i] = readName(file, DetectionLog.kNamesOffset + i * DetectionLog.kNameBytes);
+    }
+    long last = file.getLong(DetectionLog.kRecordsWrittenOffset);
+    long first = Math.max(1, last - capacity + 1);
+
+    Path output = args.length > 1 ? Paths.get(args[1]) : null;
+    long records = 0;
+    try (PrintWriter out = output != null ? new PrintWriter(Files.newBufferedWriter(output))
+        : new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))) {
+      printHeader(out);
+      for (long sequence = first; sequence <= last; sequence++) {
+        int base = (int) DetectionLog.recordOffset((sequence - 1) % capacity);
+        if (file.getLong(base) != sequence) {
+          continue;
+        }
+        printRecord(out, file, base, cameras);
+        records++;
+      }
+    }
+
+    System.err.println(String.format("%s: %d records, %d dropped while recording", args[0],
+        records, file.getLong(DetectionLog.kRecordsDroppedOffset)));
+  }
+
+  private static String readName(ByteBuffer file, int offset) {
+    byte[] bytes = new byte[DetectionLog.kNameBytes];
+    int length = 0;
+    while (length < bytes.length && file.get(offset + length) != 0) {
+      bytes[length] = file.get(offset + length);
+      length++;
+    }
+    return new String(bytes, 0, length, StandardCharsets.UTF_8);
+  }
+
+  private static void printHeader(PrintWriter out) {
+    out.print("sequence,camera,frame id,capture time,publish time,published,thumbnail,targets,"
+        + "tapes");
+    for (int i = 0; i < DetectionLog.kRejections; i++) {
+      out.print(",rejected " + PipelineMetrics.Rejection.kRejections[i]);
+    }
+    for (int i = 0; i < DetectionLog.kStages; i++) {
+      out.print("," + PipelineMetrics.Stage.kStages[i]);
+    }
+    for (int i = 1; i <= DetectionLog.kMaxTargets; i++) {
+      out.print(String.format(",target %d center x,target %d center y,target %d width"
+          + ",target %d xOffset,target %d distance,target %d angle", i, i, i, i, i, i));
+    }
+    out.println();
+  }
+
+  private static void printRecord(PrintWriter out, ByteBuffer file, int base, String[] cameras) {
+    int camera = file.get(base + 32) & 0xff;
+    int flags = file.get(base + 34) & 0xff;
+    out.print(file.getLong(base));
+    out.print(',');
+    out.print(camera < cameras.length ? cameras[camera] : Integer.toString(camera));
+    out.print(',');
+    out.print(file.getLong(base + 8));
+    out.print(',');
+    out.print(file.getLong(base + 16));
+    out.print(',');
+    out.print(file.getLong(base + 24));
+    out.print(',');
+    out.print((flags & DetectionLog.kFlagPublished) != 0);
+    out.print(',');
+    if ((flags & DetectionLog.kFlagThumbnail) != 0 && camera < cameras.length) {
+      out.print(cameras[camera] + "-" + (file.get(base + 35) & 0xff) + ".jpg");
+    }
+    out.print(',');
+    out.print(file.get(base + 33) & 0xff);
+    out.print(',');
+    out.print(file.getShort(base + 36) & 0xffff);
+    for (int i = 0; i < DetectionLog.kRejections; i++) {
+      out.print(',');
+      out.print(file.getShort(base + DetectionLog.kRejectionsOffset + 2 * i) & 0xffff);
+    }
+    for (int i = 0; i < DetectionLog.kStages; i++) {
+      out.print(',');
+      out.print(file.getInt(base + DetectionLog.kStagesOffset + 4 * i));
+    }
+    int offset = base + DetectionLog.kTargetsOffset;
+    for (int i = 0; i < DetectionLog.kMaxTargets * DetectionLog.kTargetBytes / 4; i++) {
+      float value = file.getFloat(offset + 4 * i);
+      out.print(',');
+      if (!Float.isNaN(value)) {
+        out.print(String.format(Locale.ROOT, "%.4f", value));
+      }
+    }
+    out.println();
+  }
+}
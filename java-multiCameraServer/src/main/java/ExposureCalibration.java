@@ -0,0 +1,123 @@
+import com.google.gson.JsonObject;
+
+import edu.wpi.cscore.CvSink;
+import edu.wpi.cscore.VideoCamera;
+import edu.wpi.first.cameraserver.CameraServer;
+
+import org.opencv.core.Mat;
+
+/**
+ * Finds the camera exposure and brightness that give the cleanest mask.
+ *
+ * <p>Sweeps a grid of manual exposure and brightness values. Every setting is
+ * given a few frames to settle, then scored over a few more by running the
+ * pipeline: each goal target found counts for it, each contour rejected by
+ * the filter or left unpaired counts against it. Fewer noise contours mean
+ * cheaper frames as well as fewer false targets. The sweep takes a few
+ * seconds and the camera is left at the best setting.
+ */
+public final class ExposureCalibration {
+  private static final int[] kExposures = {2, 4, 8, 12, 16, 24, 32, 48};
+  private static final int[] kBrightness = {20, 40, 60};
+  private static final int kSettleFrames = 3;
+  private static final int kScoreFrames = 5;
+  private static final double kTargetWeight = 10;
+
+  /**
+   * An exposure and brightness with its score.
+   */
+  public static final class Setting {
+    public final int exposure;
+    public final int brightness;
+    public final double score;
+
+    Setting(int exposure, int brightness, double score) {
+      this.exposure = exposure;
+      this.brightness = brightness;
+      this.score = score;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("exposure %d, brightness %d (score %.1f)", exposure, brightness, score);
+    }
+  }
+
+  private ExposureCalibration() {
+  }
+
+  /**
+   * Run the sweep on a camera that is not being processed yet.
+   * @param camera the camera
+   * @param config the pipeline settings to score with
+   * @param detector the name of the tape detector, see {@link TapeDetector#create}
+   * @param restore puts the camera back to its settings before the sweep,
+   *     run if no setting is chosen, including when the sweep fails
+   * @return the best setting, or null if no setting found a target, in which
+   *     case the camera is back at its settings before the sweep
+   */
+  public static Setting calibrate(VideoCamera camera, PipelineConfig config, String detector,
+      Runnable restore) {
+    // score whole frames, not a tracking window
+    JsonObject noTracking = new JsonObject();
+    noTracking.addProperty("tracking", false);
+    TargetFinder finder = new TargetFinder(TapeDetector.create(detector, config.with(noTracking)));
+    CvSink sink = CameraServer.getInstance().getVideo(camera);
+    Mat frame = new Mat();
+
+    Setting best = null;
+    boolean chosen = false;
+    try {
+      // lower exposures first, so a tie keeps the one with less motion blur
+      for (int exposure : kExposures) {
+        for (int brightness : kBrightness) {
+          camera.setExposureManual(exposure);
+          camera.setBrightness(brightness);
+          double score = score(sink, frame, finder);
+          if (best == null || score > best.score) {
+            best = new Setting(exposure, brightness, score);
+          }
+        }
+      }
+
+      if (best == null || best.score <= 0) {
+        return null;
+      }
+      camera.setExposureManual(best.exposure);
+      camera.setBrightness(best.brightness);
+      chosen = true;
+      return best;
+    } finally {
+      finder.release();
+      frame.release();
+      if (!chosen) {
+        // cscore cannot read the exposure back, so apply the settings again
+        restore.run();
+      }
+    }
+  }
+
+  /**
+   * The mean score of the current setting over a few frames.
+   */
+  private static double score(CvSink sink, Mat frame, TargetFinder finder) {
+    for (int i = 0; i < kSettleFrames; i++) {
+      sink.grabFrame(frame);
+    }
+    double total = 0;
+    int frames = 0;
+    for (int i = 0; i < kScoreFrames; i++) {
+      if (sink.grabFrame(frame) == 0) {
+        continue;
+      }
+      int targets = finder.findTargets(frame).size();
+      long noise = finder.tapeCount() - 2 * targets;
+      for (long rejected : finder.getPipeline().rejections()) {
+        noise += rejected;
+      }
+      total += kTargetWeight * targets - noise;
+      frames++;
+    }
+    return frames > 0 ? total / frames : Double.NEGATIVE_INFINITY;
+  }
+}
@@ -0,0 +1,104 @@
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The targets found in one frame, handed from a processing worker to the
+ * publish stage.
+ *
+ * <p>Results are preallocated per worker and returned to the worker's free
+ * queue once published, so the hand-off does not allocate.
+ */
+public class FrameResult {
+  private final CameraVision camera;
+  private final BlockingQueue<FrameResult> freeQueue;
+
+  public long frameId;
+  public long frameTime;
+  public int count;
+  public double[] xOffset = new double[0];
+  public double[] distance = new double[0];
+  public double[] angle = new double[0];
+  // PoseEstimator.kPoseValues per target, if hasPose
+  public boolean hasPose;
+  public double[] pose = new double[0];
+  // the GoalTarget values the others are computed from
+  public double[] centerX = new double[0];
+  public double[] centerY = new double[0];
+  public double[] targetWidth = new double[0];
+  // the single tapes found, paired or not
+  public int tapes;
+  // the dropout thumbnail of the frame until it is recorded, or null
+  public DetectionLog.Thumbnail thumbnail;
+  public final long[] stageNanos = new long[PipelineMetrics.Stage.kStages.length];
+  public final long[] rejections = new long[PipelineMetrics.Rejection.kRejections.length];
+
+  /**
+   * Create a result that goes back to freeQueue once published.
+   */
+  public FrameResult(CameraVision camera, BlockingQueue<FrameResult> freeQueue) {
+    this.camera = camera;
+    this.freeQueue = freeQueue;
+  }
+
+  public CameraVision getCamera() {
+    return camera;
+  }
+
+  /**
+   * Fill in the values of the targets of a frame.
+   * @param targets the targets found in the frame
+   * @param model the model of the camera the frame came from
+   */
+  public void setTargets(List<GoalTarget> targets, CameraModel model) {
+    count = targets.size();
+    if (xOffset.length < count) {
+      xOffset = new double[count];
+      distance = new double[count];
+      angle = new double[count];
+      centerX = new double[count];
+      centerY = new double[count];
+      targetWidth = new double[count];
+    }
+    for (int index = 0; index < count; index++) {
+      GoalTarget target = targets.get(index);
+      centerX[index] = target.centerX();
+      centerY[index] = target.centerY();
+      targetWidth[index] = target.targetWidth();
+    }
+    model.compute(count, centerX, targetWidth, xOffset, distance, angle);
+    hasPose = false;
+  }
+
+  /**
+   * Solve the pose of the targets set last. Where a pose is found, the
+   * distance and offset are taken from it instead of from the tape spacing.
+   * @param targets the targets found in the frame
+   * @param estimator the pose estimator of the worker
+   */
+  public void setPoses(List<GoalTarget> targets, PoseEstimator estimator) {
+    int values = PoseEstimator.kPoseValues;
+    if (pose.length < values * count) {
+      pose = new double[values * xOffset.length];
+    }
+    for (int index = 0; index < count; index++) {
+      if (estimator.solve(targets.get(index), pose, values * index)) {
+        // the offset is positive to the left, the pose x to the right
+        xOffset[index] = -pose[values * index];
+        distance[index] = pose[values * index + 2];
+      }
+    }
+    hasPose = true;
+  }
+
+  /**
+   * Return the result to its worker for reuse.
+   */
+  public void recycle() {
+    if (thumbnail != null) {
+      // the frame was not recorded, so neither is its thumbnail
+      thumbnail.discard();
+      thumbnail = null;
+    }
+    freeQueue.offer(this);
+  }
+}
@@ -0,0 +1,147 @@
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Fixed ring of preallocated frames between a capture thread and the
+ * processing workers of one camera.
+ *
+ * <p>The policy is latest-frame-wins: only the newest captured frame is ever
+ * handed to a worker. A frame that is superseded before a worker takes it is
+ * dropped and its slot reused, so workers never fall behind the camera and
+ * no Mat is allocated after startup.
+ *
+ * <p>The camera grabs straight into the slot and the worker's pipeline and
+ * the debug stream read the same buffer, so a frame is never copied after
+ * capture. Readers must treat the frame as read only.
+ */
+public class FrameRing {
+  /**
+   * A frame buffer and the capture information of the frame in it.
+   */
+  public static class Slot {
+    public final Mat frame;
+    public long frameTime;
+    public long frameId;
+    private final int index;
+
+    Slot(int index, int width, int height) {
+      this.index = index;
+      this.frame = width > 0 && height > 0 ? new Mat(height, width, CvType.CV_8UC3) : new Mat();
+    }
+  }
+
+  private final Slot[] slots;
+  private final boolean[] busy;
+  private int latest = -1;
+  private long nextFrameId;
+  private long dropped;
+
+  /**
+   * Create a ring for a number of concurrent readers.
+   * @param readers the number of workers that may hold a frame at once
+   * @param width the expected frame width, or 0 if unknown
+   * @param height the expected frame height, or 0 if unknown
+   */
+  public FrameRing(int readers, int width, int height) {
+    // one slot per reader, one being captured into and one waiting as latest
+    slots = new Slot[readers + 2];
+    busy = new boolean[slots.length];
+    for (int i = 0; i < slots.length; i++) {
+      slots[i] = new Slot(i, width, height);
+    }
+    MatPool.getInstance().account(MatPool.Use.FRAMES, frameBytes());
+  }
+
+  private long frameBytes() {
+    long bytes = 0;
+    for (Slot slot : slots) {
+      bytes += slot.frame.total() * slot.frame.elemSize();
+    }
+    return bytes;
+  }
+
+  /**
+   * Get a slot to capture the next frame into. The newest unread frame and
+   * the frames held by readers are never handed out.
+   */
+  public synchronized Slot acquireWrite() {
+    for (int i = 0; i < slots.length; i++) {
+      if (!busy[i] && i != latest) {
+        busy[i] = true;
+        return slots[i];
+      }
+    }
+    throw new IllegalStateException("frame ring has no free slot");
+  }
+
+  /**
+   * Make a captured frame the newest one, dropping the previous newest frame
+   * if no reader took it.
+   * @param slot the slot from {@link #acquireWrite}
+   * @param frameTime the capture time of the frame
+   */
+  public synchronized void publish(Slot slot, long frameTime) {
+    slot.frameTime = frameTime;
+    slot.frameId = ++nextFrameId;
+    busy[slot.index] = false;
+    if (latest >= 0) {
+      dropped++;
+    }
+    latest = slot.index;
+  }
+
+  /**
+   * Give back a slot from {@link #acquireWrite} without publishing it, e.g.
+   * when grabbing the frame failed.
+   */
+  public synchronized void cancel(Slot slot) {
+    busy[slot.index] = false;
+  }
+
+  /**
+   * Take the newest frame if there is one. Never waits.
+   * @return the frame, or null if no frame arrived since the last one taken
+   */
+  public synchronized Slot pollLatest() {
+    if (latest < 0) {
+      return null;
+    }
+    Slot slot = slots[latest];
+    busy[latest] = true;
+    latest = -1;
+    return slot;
+  }
+
+  /**
+   * Whether a frame arrived that no reader took yet.
+   */
+  public synchronized boolean hasLatest() {
+    return latest >= 0;
+  }
+
+  /**
+   * Give back a frame from {@link #pollLatest} once it has been processed.
+   */
+  public synchronized void release(Slot slot) {
+    busy[slot.index] = false;
+  }
+
+  /**
+   * The number of frames dropped since the last call.
+   */
+  public synchronized long takeDropped() {
+    long count = dropped;
+    dropped = 0;
+    return count;
+  }
+
+  /**
+   * Releases the native memory of every frame. No slot may be in use.
+   */
+  public synchronized void releaseFrames() {
+    MatPool.getInstance().account(MatPool.Use.FRAMES, -frameBytes());
+    for (Slot slot : slots) {
+      slot.frame.release();
+    }
+  }
+}
@@ -0,0 +1,43 @@
+import java.io.File;
+
+import org.opencv.core.Mat;
+
+/**
+ * A source of frames for the pipeline other than a live camera, e.g.
+ * recorded images or a video file for the offline {@link Replay} tool.
+ *
+ * <p>Frames are grabbed the same way as from a cscore CvSink, into a
+ * caller-owned Mat, with a capture time in microseconds.
+ */
+public interface FrameSource {
+  /**
+   * Grab the next frame.
+   * @param frame the Mat in which to store the BGR frame
+   * @return the capture time of the frame in microseconds, relative to the
+   *     first frame of the source, or -1 at the end of the source
+   */
+  long grabFrame(Mat frame);
+
+  /**
+   * The name of the source, for reports.
+   */
+  String getName();
+
+  /**
+   * Release the source.
+   */
+  void close();
+
+  /**
+   * Open a directory of images or a video file.
+   * @param file the directory or video file
+   * @param fps the frame rate of image directories, video files use their own
+   * @throws IllegalArgumentException if the file cannot be opened
+   */
+  static FrameSource open(File file, double fps) {
+    if (file.isDirectory()) {
+      return new ImageDirectorySource(file, fps);
+    }
+    return new VideoFileSource(file);
+  }
+}
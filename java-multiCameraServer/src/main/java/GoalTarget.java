@@ -1,3 +1,4 @@
+import org.opencv.core.Rect;
 import org.opencv.core.RotatedRect;
 
 public class GoalTarget
@@ -11,6 +12,16 @@ public class GoalTarget
         this.rightTape = rightTape;
     }
 
+    public RotatedRect leftTape()
+    {
+        return leftTape;
+    }
+
+    public RotatedRect rightTape()
+    {
+        return rightTape;
+    }
+
     public double centerX()
     {
         return (leftTape.center.x + rightTape.center.x) / 2;
@@ -26,6 +37,20 @@ public class GoalTarget
         return rightTape.center.x - leftTape.center.x;
     }
 
+    /**
+     * The upright rectangle enclosing both tapes.
+     */
+    public Rect boundingRect()
+    {
+        Rect left = leftTape.boundingRect();
+        Rect right = rightTape.boundingRect();
+        int x = Math.min(left.x, right.x);
+        int y = Math.min(left.y, right.y);
+        int width = Math.max(left.x + left.width, right.x + right.width) - x;
+        int height = Math.max(left.y + left.height, right.y + right.height) - y;
+        return new Rect(x, y, width, height);
+    }
+
     
 }
 
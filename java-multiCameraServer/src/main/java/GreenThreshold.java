@@ -0,0 +1,48 @@
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Single channel "excess green" image of a BGR frame, G - max(R, B),
+ * saturated at 0.
+ *
+ * <p>The green ring light makes the tape far greener than anything else in
+ * the frame, while white and gray surfaces have about equal channels and
+ * come out near 0. The pipeline blurs and thresholds this one channel
+ * instead of blurring all three channels, converting them to HLS and
+ * thresholding three ranges. Checked against the HSL threshold with
+ * {@link MaskParity}.
+ */
+public class GreenThreshold {
+  private static final int kBlue = 0;
+  private static final int kGreen = 1;
+  private static final int kRed = 2;
+
+  private MatPool.Lease other;
+
+  /**
+   * Compute the excess green of an image.
+   * @param input the BGR image
+   * @param output the 8 bit single channel image in which to store the
+   *     excess green, the size of input
+   * @throws MatPool.CapExceededException if the native memory cap is reached
+   */
+  public void apply(Mat input, Mat output) {
+    other = MatPool.getInstance().renew(other, input.rows(), input.cols(), CvType.CV_8UC1,
+        MatPool.Use.THRESHOLD);
+    Mat redBlue = other.mat();
+    Core.extractChannel(input, redBlue, kBlue);
+    Core.extractChannel(input, output, kRed);
+    Core.max(redBlue, output, redBlue);
+    Core.extractChannel(input, output, kGreen);
+    Core.subtract(output, redBlue, output);
+  }
+
+  /**
+   * Give back the scratch image.
+   */
+  public void release() {
+    MatPool.getInstance().giveBack(other);
+    other = null;
+  }
+}
@@ -0,0 +1,58 @@
+import java.io.File;
+import java.util.Arrays;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * Frames read from the images of a directory, in file name order. Files
+ * that are not images are skipped.
+ */
+public class ImageDirectorySource implements FrameSource {
+  private final File directory;
+  private final File[] files;
+  private final double fps;
+  private int next;
+  private long frames;
+
+  /**
+   * Create a source for a directory.
+   * @param directory the directory of images
+   * @param fps the frame rate the images were recorded at, used for the
+   *     frame times
+   */
+  public ImageDirectorySource(File directory, double fps) {
+    this.directory = directory;
+    this.fps = fps;
+    File[] listed = directory.listFiles(File::isFile);
+    if (listed == null) {
+      throw new IllegalArgumentException("could not list '" + directory + "'");
+    }
+    Arrays.sort(listed);
+    files = listed;
+  }
+
+  @Override
+  public long grabFrame(Mat frame) {
+    while (next < files.length) {
+      Mat image = Imgcodecs.imread(files[next++].getPath());
+      if (image.empty()) {
+        image.release();
+        continue;
+      }
+      image.copyTo(frame);
+      image.release();
+      return (long) (frames++ * 1e6 / fps);
+    }
+    return -1;
+  }
+
+  @Override
+  public String getName() {
+    return directory.getPath();
+  }
+
+  @Override
+  public void close() {
+  }
+}
@@ -0,0 +1,108 @@
+import java.util.Arrays;
+
+/**
+ * Fixed-size latency histogram with microsecond resolution.
+ *
+ * <p>Values below 64 us get a bucket each. Above that every power of two is
+ * split into 32 buckets, so percentiles are accurate to about 3% up to many
+ * seconds. Recording is a few shifts and an array increment and never
+ * allocates. Not thread safe; callers synchronize.
+ */
+public class LatencyHistogram {
+  private static final int kLinearBuckets = 64;
+  private static final int kSubBucketBits = 5;
+  private static final int kSubBuckets = 1 << kSubBucketBits;
+  private static final int kLinearBits = 6;
+  private static final int kMaxExponent = 40;
+  private static final int kBuckets = kLinearBuckets + (kMaxExponent - kLinearBits + 1) * kSubBuckets;
+
+  private final long[] counts = new long[kBuckets];
+  private long total;
+  private long max;
+
+  /**
+   * Record a duration.
+   * @param nanos the duration in nanoseconds
+   */
+  public void recordNanos(long nanos) {
+    recordMicros(nanos / 1000);
+  }
+
+  /**
+   * Record a duration.
+   * @param micros the duration in microseconds
+   */
+  public void recordMicros(long micros) {
+    if (micros < 0) {
+      micros = 0;
+    }
+    counts[bucket(micros)]++;
+    total++;
+    max = Math.max(max, micros);
+  }
+
+  public long count() {
+    return total;
+  }
+
+  /**
+   * The largest recorded value in microseconds.
+   */
+  public long maxMicros() {
+    return max;
+  }
+
+  /**
+   * Get a percentile of the recorded values.
+   * @param percentile the percentile, between 0 and 100
+   * @return the value in microseconds, or 0 if nothing was recorded
+   */
+  public long percentileMicros(double percentile) {
+    if (total == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(percentile / 100.0 * total);
+    long seen = 0;
+    for (int i = 0; i < kBuckets; i++) {
+      seen += counts[i];
+      if (seen >= Math.max(rank, 1)) {
+        return Math.min(bucketValue(i), max);
+      }
+    }
+    return max;
+  }
+
+  /**
+   * Forget all recorded values.
+   */
+  public void reset() {
+    Arrays.fill(counts, 0);
+    total = 0;
+    max = 0;
+  }
+
+  private static int bucket(long micros) {
+    if (micros < kLinearBuckets) {
+      return (int) micros;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(micros);
+    if (exponent > kMaxExponent) {
+      return kBuckets - 1;
+    }
+    int subBucket = (int) (micros >>> (exponent - kSubBucketBits)) & (kSubBuckets - 1);
+    return kLinearBuckets + (exponent - kLinearBits) * kSubBuckets + subBucket;
+  }
+
+  /**
+   * The upper bound of a bucket in microseconds.
+   */
+  private static long bucketValue(int bucket) {
+    if (bucket < kLinearBuckets) {
+      return bucket;
+    }
+    int exponent = (bucket - kLinearBuckets) / kSubBuckets + kLinearBits;
+    int subBucket = (bucket - kLinearBuckets) % kSubBuckets;
+    long width = 1L << (exponent - kSubBucketBits);
+    return (1L << exponent) + (subBucket + 1) * width - 1;
+  }
+}
@@ -9,6 +9,8 @@
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -24,32 +26,31 @@ import com.google.gson.JsonParser;
 
 import edu.wpi.cscore.MjpegServer;
 import edu.wpi.cscore.UsbCamera;
+import edu.wpi.cscore.VideoCamera;
+import edu.wpi.cscore.VideoMode;
 import edu.wpi.cscore.VideoSource;
 import edu.wpi.first.cameraserver.CameraServer;
 import edu.wpi.first.networktables.NetworkTable;
 import edu.wpi.first.networktables.NetworkTableInstance;
-import edu.wpi.first.vision.VisionPipeline;
-import edu.wpi.first.vision.VisionThread;
-
-import org.opencv.core.Core;
-import org.opencv.core.CvType;
-import org.opencv.core.Mat;
-import org.opencv.core.MatOfInt;
-import org.opencv.core.MatOfPoint;
-import org.opencv.core.MatOfPoint2f;
-import org.opencv.core.Rect;
-import org.opencv.core.RotatedRect;
-import org.opencv.core.Scalar;
-import org.opencv.core.Size;
-import org.opencv.features2d.FeatureDetector;
-import org.opencv.imgproc.Imgproc;
-import org.opencv.core.MatOfKeyPoint;
 
 /*
    JSON format:
    {
        "team": <team number>,
        "ntmode": <"client" or "server", "client" if unspecified>
+       "publish tolerance": <ignored change>        // optional, 0.001 if unspecified
+       "legacy entries": <true or false>            // optional, true if unspecified; also
+                                                    // publish the xOffset, distance, ... entries
+       "latency budget": <milliseconds>             // optional, 0 (none) if unspecified; reduce
+                                                    // the work per frame above it, see QosScheduler
+       "native memory cap": <megabytes>             // optional, 0 (no cap) if unspecified;
+                                                    // frames are dropped above it
+       "detection log": {                           // optional, record every frame, see DetectionLog
+           <detection log setting>: <value>
+       }
+       "pipeline": {                                // optional
+           <pipeline setting>: <value>              // see PipelineConfig
+       }
        "cameras": [
            {
                "name": <camera name>
@@ -61,6 +62,10 @@ import org.opencv.core.MatOfKeyPoint;
                "brightness": <percentage brightness>    // optional
                "white balance": <"auto", "hold", value> // optional
                "exposure": <"auto", "hold", value>      // optional
+               "workers": <frames processed at once>    // optional, 1 if unspecified
+               "detector": <"contours" or "components"> // optional, "contours" if unspecified
+               "calibrate": <true or false>             // optional, sweep exposure and brightness
+                                                        // at startup, save the best and reset to false
                "properties": [                          // optional
                    {
                        "name": <property name>
@@ -74,6 +79,15 @@ import org.opencv.core.MatOfKeyPoint;
                            "value": <stream property value>
                        }
                    ]
+               },
+               "pipeline": {                            // optional
+                   <pipeline setting>: <value>          // overrides top level
+               }
+               "camera model": {                        // optional, see CameraModel
+                   <camera model setting>: <value>
+               }
+               "debug stream": {                        // optional, annotated stream, see DebugStream
+                   <debug stream setting>: <value>
                }
            }
        ]
@@ -89,11 +103,23 @@ public final class Main {
     public String path;
     public JsonObject config;
     public JsonElement streamConfig;
+    public JsonObject pipelineConfig;
+    public int workers = 1;
+    public String detector = "contours";
+    public boolean calibrate;
+    public JsonObject cameraModel;
+    public JsonObject debugStream;
   }
 
   public static int team;
   public static boolean server;
   public static List<CameraConfig> cameraConfigs = new ArrayList<>();
+  public static JsonObject pipelineConfig;
+  public static double publishTolerance = 0.001;
+  public static boolean legacyEntries = true;
+  public static double nativeMemoryCap;
+  public static double latencyBudget;
+  public static JsonObject detectionLogConfig;
 
   
 
@@ -132,6 +158,51 @@ public final class Main {
     // stream properties
     cam.streamConfig = config.get("stream");
 
+    // processing workers (optional)
+    JsonElement workersElement = config.get("workers");
+    if (workersElement != null) {
+      cam.workers = workersElement.getAsInt();
+      if (cam.workers < 1) {
+        parseError("camera '" + cam.name + "': workers must be at least 1");
+        return false;
+      }
+    }
+
+    // tape detector (optional)
+    JsonElement detectorElement = config.get("detector");
+    if (detectorElement != null) {
+      cam.detector = detectorElement.getAsString();
+      if (!"contours".equalsIgnoreCase(cam.detector)
+          && !"components".equalsIgnoreCase(cam.detector)) {
+        parseError("camera '" + cam.name + "': detector must be \"contours\" or \"components\"");
+        return false;
+      }
+    }
+
+    // exposure calibration (optional)
+    JsonElement calibrateElement = config.get("calibrate");
+    if (calibrateElement != null) {
+      cam.calibrate = calibrateElement.getAsBoolean();
+    }
+
+    // camera geometry (optional)
+    JsonElement modelElement = config.get("camera model");
+    if (modelElement != null) {
+      cam.cameraModel = modelElement.getAsJsonObject();
+    }
+
+    // annotated debug stream (optional)
+    JsonElement debugElement = config.get("debug stream");
+    if (debugElement != null) {
+      cam.debugStream = debugElement.getAsJsonObject();
+    }
+
+    // pipeline settings (optional)
+    JsonElement pipelineElement = config.get("pipeline");
+    if (pipelineElement != null) {
+      cam.pipelineConfig = pipelineElement.getAsJsonObject();
+    }
+
     cam.config = config;
 
     cameraConfigs.add(cam);
@@ -179,6 +250,34 @@ public final class Main {
       }
     }
 
+    // result publishing (optional)
+    if (obj.has("publish tolerance")) {
+      publishTolerance = obj.get("publish tolerance").getAsDouble();
+    }
+    if (obj.has("legacy entries")) {
+      legacyEntries = obj.get("legacy entries").getAsBoolean();
+    }
+
+    // latency budget (optional)
+    if (obj.has("latency budget")) {
+      latencyBudget = obj.get("latency budget").getAsDouble();
+    }
+
+    // native memory (optional)
+    if (obj.has("native memory cap")) {
+      nativeMemoryCap = obj.get("native memory cap").getAsDouble();
+    }
+
+    // detection log (optional)
+    if (obj.has("detection log")) {
+      detectionLogConfig = obj.get("detection log").getAsJsonObject();
+    }
+
+    // pipeline settings (optional)
+    if (obj.has("pipeline")) {
+      pipelineConfig = obj.get("pipeline").getAsJsonObject();
+    }
+
     // cameras
     JsonElement camerasElement = obj.get("cameras");
     if (camerasElement == null) {
@@ -196,314 +295,183 @@ public final class Main {
   }
 
   /**
-   * Start running the camera.
+   * Build the pipeline settings of a camera from the top level and camera
+   * "pipeline" sections. Bad settings are reported and the defaults used.
    */
-  public static VideoSource startCamera(CameraConfig config) {
-    System.out.println("Starting camera '" + config.name + "' on " + config.path);
-    CameraServer inst = CameraServer.getInstance();
-    UsbCamera camera = new UsbCamera(config.name, config.path);
-    camera.setBrightness(40);
-    camera.setExposureManual(12);
-    camera.setWhiteBalanceManual(2675);
-    camera.setFPS(40);
-    MjpegServer server = inst.startAutomaticCapture(camera);
-
-    Gson gson = new GsonBuilder().create();
-
-    camera.setConfigJson(gson.toJson(config.config));
-    camera.setConnectionStrategy(VideoSource.ConnectionStrategy.kKeepOpen);
-
-    if (config.streamConfig != null) {
-      server.setConfigJson(gson.toJson(config.streamConfig));
+  public static PipelineConfig getPipelineConfig(JsonObject common, CameraConfig config) {
+    try {
+      return readPipelineConfig(common, config.pipelineConfig);
+    } catch (IllegalArgumentException ex) {
+      parseError("camera '" + config.name + "': " + ex.getMessage());
+      return PipelineConfig.kDefault;
     }
-
-    return camera;
   }
 
   /**
-   *  pipeline.
+   * Build pipeline settings from the top level and camera "pipeline"
+   * sections, either of which may be null.
+   * @throws IllegalArgumentException if a setting is bad
    */
-  public static class CardinalPipeline implements VisionPipeline {
-
-    //Outputs
-	private Mat blurOutput = new Mat();
-	private Mat hslThresholdOutput = new Mat();
-	private ArrayList<MatOfPoint> findContoursOutput = new ArrayList<MatOfPoint>();
-	private ArrayList<MatOfPoint> filterContoursOutput = new ArrayList<MatOfPoint>();
-
-	static {
-		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
-	}
-
-	/**
-	 * This is the primary method that runs the entire pipeline and updates the outputs.
-	 */
-	@Override	public void process(Mat source0) {
-		// Step Blur0:
-		Mat blurInput = source0;
-		BlurType blurType = BlurType.get("Box Blur");
-		double blurRadius = 3.6036036036036037;
-		blur(blurInput, blurType, blurRadius, blurOutput);
-
-		// Step HSL_Threshold0:
-		Mat hslThresholdInput = blurOutput;
-		double[] hslThresholdHue = {66.36690647482014, 100.13651877133107};
-		double[] hslThresholdSaturation = {50.47662503622397, 255.0};
-		double[] hslThresholdLuminance = {149.05575539568346, 248.47269624573377};
-		hslThreshold(hslThresholdInput, hslThresholdHue, hslThresholdSaturation, hslThresholdLuminance, hslThresholdOutput);
-
-		// Step Find_Contours0:
-		Mat findContoursInput = hslThresholdOutput;
-		boolean findContoursExternalOnly = false;
-		findContours(findContoursInput, findContoursExternalOnly, findContoursOutput);
-
-		// Step Filter_Contours0:
-		ArrayList<MatOfPoint> filterContoursContours = findContoursOutput;
-		double filterContoursMinArea = 20.0;
-		double filterContoursMinPerimeter = 0.0;
-		double filterContoursMinWidth = 0.0;
-		double filterContoursMaxWidth = 1000.0;
-		double filterContoursMinHeight = 5.0;
-		double filterContoursMaxHeight = 1000.0;
-		double[] filterContoursSolidity = {64.74820143884892, 100};
-		double filterContoursMaxVertices = 1000000.0;
-		double filterContoursMinVertices = 0.0;
-		double filterContoursMinRatio = 0.0;
-		double filterContoursMaxRatio = 1000.0;
-		filterContours(filterContoursContours, filterContoursMinArea, filterContoursMinPerimeter, filterContoursMinWidth, filterContoursMaxWidth, filterContoursMinHeight, filterContoursMaxHeight, filterContoursSolidity, filterContoursMaxVertices, filterContoursMinVertices, filterContoursMinRatio, filterContoursMaxRatio, filterContoursOutput);
-
-	}
-
-	/**
-	 * This method is a generated getter for the output of a Blur.
-	 * @return Mat output from Blur.
-	 */
-	public Mat blurOutput() {
-		return blurOutput;
-	}
-
-	/**
-	 * This method is a generated getter for the output of a HSL_Threshold.
-	 * @return Mat output from HSL_Threshold.
-	 */
-	public Mat hslThresholdOutput() {
-		return hslThresholdOutput;
-	}
-
-	/**
-	 * This method is a generated getter for the output of a Find_Contours.
-	 * @return ArrayList<MatOfPoint> output from Find_Contours.
-	 */
-	public ArrayList<MatOfPoint> findContoursOutput() {
-		return findContoursOutput;
-	}
-
-	/**
-	 * This method is a generated getter for the output of a Filter_Contours.
-	 * @return ArrayList<MatOfPoint> output from Filter_Contours.
-	 */
-	public ArrayList<MatOfPoint> filterContoursOutput() {
-		return filterContoursOutput;
-	}
-
-
-	/**
-	 * An indication of which type of filter to use for a blur.
-	 * Choices are BOX, GAUSSIAN, MEDIAN, and BILATERAL
-	 */
-	enum BlurType{
-		BOX("Box Blur"), GAUSSIAN("Gaussian Blur"), MEDIAN("Median Filter"),
-			BILATERAL("Bilateral Filter");
-
-		private final String label;
-
-		BlurType(String label) {
-			this.label = label;
-		}
-
-		public static BlurType get(String type) {
-			if (BILATERAL.label.equals(type)) {
-				return BILATERAL;
-			}
-			else if (GAUSSIAN.label.equals(type)) {
-			return GAUSSIAN;
-			}
-			else if (MEDIAN.label.equals(type)) {
-				return MEDIAN;
-			}
-			else {
-				return BOX;
-			}
-		}
-
-		@Override
-		public String toString() {
-			return this.label;
-		}
-	}
-
-	/**
-	 * Softens an image using one of several filters.
-	 * @param input The image on which to perform the blur.
-	 * @param type The blurType to perform.
-	 * @param doubleRadius The radius for the blur.
-	 * @param output The image in which to store the output.
-	 */
-	private void blur(Mat input, BlurType type, double doubleRadius,
-		Mat output) {
-		int radius = (int)(doubleRadius + 0.5);
-		int kernelSize;
-		switch(type){
-			case BOX:
-				kernelSize = 2 * radius + 1;
-				Imgproc.blur(input, output, new Size(kernelSize, kernelSize));
-				break;
-			case GAUSSIAN:
-				kernelSize = 6 * radius + 1;
-				Imgproc.GaussianBlur(input,output, new Size(kernelSize, kernelSize), radius);
-				break;
-			case MEDIAN:
-				kernelSize = 2 * radius + 1;
-				Imgproc.medianBlur(input, output, kernelSize);
-				break;
-			case BILATERAL:
-				Imgproc.bilateralFilter(input, output, -1, radius, radius);
-				break;
-		}
-	}
-
-	/**
-	 * Segment an image based on hue, saturation, and luminance ranges.
-	 *
-	 * @param input The image on which to perform the HSL threshold.
-	 * @param hue The min and max hue
-	 * @param sat The min and max saturation
-	 * @param lum The min and max luminance
-	 * @param output The image in which to store the output.
-	 */
-	private void hslThreshold(Mat input, double[] hue, double[] sat, double[] lum,
-		Mat out) {
-		Imgproc.cvtColor(input, out, Imgproc.COLOR_BGR2HLS);
-		Core.inRange(out, new Scalar(hue[0], lum[0], sat[0]),
-			new Scalar(hue[1], lum[1], sat[1]), out);
-	}
-
-	/**
-	 * Sets the values of pixels in a binary image to their distance to the nearest black pixel.
-	 * @param input The image on which to perform the Distance Transform.
-	 * @param type The Transform.
-	 * @param maskSize the size of the mask.
-	 * @param output The image in which to store the output.
-	 */
-	private void findContours(Mat input, boolean externalOnly,
-		List<MatOfPoint> contours) {
-		Mat hierarchy = new Mat();
-		contours.clear();
-		int mode;
-		if (externalOnly) {
-			mode = Imgproc.RETR_EXTERNAL;
-		}
-		else {
-			mode = Imgproc.RETR_LIST;
-		}
-		int method = Imgproc.CHAIN_APPROX_SIMPLE;
-		Imgproc.findContours(input, contours, hierarchy, mode, method);
-	}
-
-
-	/**
-	 * Filters out contours that do not meet certain criteria.
-	 * @param inputContours is the input list of contours
-	 * @param output is the the output list of contours
-	 * @param minArea is the minimum area of a contour that will be kept
-	 * @param minPerimeter is the minimum perimeter of a contour that will be kept
-	 * @param minWidth minimum width of a contour
-	 * @param maxWidth maximum width
-	 * @param minHeight minimum height
-	 * @param maxHeight maximimum height
-	 * @param Solidity the minimum and maximum solidity of a contour
-	 * @param minVertexCount minimum vertex Count of the contours
-	 * @param maxVertexCount maximum vertex Count
-	 * @param minRatio minimum ratio of width to height
-	 * @param maxRatio maximum ratio of width to height
-	 */
-	private void filterContours(List<MatOfPoint> inputContours, double minArea,
-		double minPerimeter, double minWidth, double maxWidth, double minHeight, double
-		maxHeight, double[] solidity, double maxVertexCount, double minVertexCount, double
-		minRatio, double maxRatio, List<MatOfPoint> output) {
-		final MatOfInt hull = new MatOfInt();
-		output.clear();
-		//operation
-		for (int i = 0; i < inputContours.size(); i++) {
-			final MatOfPoint contour = inputContours.get(i);
-			final Rect bb = Imgproc.boundingRect(contour);
-			if (bb.width < minWidth || bb.width > maxWidth) continue;
-			if (bb.height < minHeight || bb.height > maxHeight) continue;
-			final double area = Imgproc.contourArea(contour);
-			if (area < minArea) continue;
-			if (Imgproc.arcLength(new MatOfPoint2f(contour.toArray()), true) < minPerimeter) continue;
-			Imgproc.convexHull(contour, hull);
-			MatOfPoint mopHull = new MatOfPoint();
-			mopHull.create((int) hull.size().height, 1, CvType.CV_32SC2);
-			for (int j = 0; j < hull.size().height; j++) {
-				int index = (int)hull.get(j, 0)[0];
-				double[] point = new double[] { contour.get(index, 0)[0], contour.get(index, 0)[1]};
-				mopHull.put(j, 0, point);
-			}
-			final double solid = 100 * area / Imgproc.contourArea(mopHull);
-			if (solid < solidity[0] || solid > solidity[1]) continue;
-			if (contour.rows() < minVertexCount || contour.rows() > maxVertexCount)	continue;
-			final double ratio = bb.width / (double)bb.height;
-			if (ratio < minRatio || ratio > maxRatio) continue;
-			output.add(contour);
-		}
-	}
-
+  private static PipelineConfig readPipelineConfig(JsonObject common, JsonObject camera) {
+    PipelineConfig pipeline = PipelineConfig.kDefault;
+    if (common != null) {
+      pipeline = pipeline.with(common);
+    }
+    if (camera != null) {
+      pipeline = pipeline.with(camera);
+    }
+    return pipeline;
+  }
 
+  /**
+   * Re-read the pipeline settings from the configuration file and apply them
+   * to the running cameras. A camera whose new settings are bad is reported
+   * and keeps running with its previous ones.
+   */
+  public static void reloadPipelineConfig(VisionEngine engine) {
+    JsonObject obj;
+    try (Reader reader = Files.newBufferedReader(Paths.get(configFile))) {
+      obj = new JsonParser().parse(reader).getAsJsonObject();
+    } catch (IOException | RuntimeException ex) {
+      System.err.println("could not reload '" + configFile + "': " + ex);
+      return;
+    }
 
+    JsonObject common = obj.has("pipeline") ? obj.get("pipeline").getAsJsonObject() : null;
+    JsonArray cameras = obj.getAsJsonArray("cameras");
+    if (cameras == null) {
+      parseError("could not read cameras");
+      return;
+    }
+    try {
+      readPipelineConfig(common, null);
+    } catch (IllegalArgumentException ex) {
+      parseError(ex.getMessage() + ", keeping the previous pipeline settings");
+      return;
+    }
+    for (CameraConfig cam : cameraConfigs) {
+      JsonObject camPipeline = null;
+      for (JsonElement camera : cameras) {
+        JsonObject camObj = camera.getAsJsonObject();
+        if (camObj.has("name") && cam.name.equals(camObj.get("name").getAsString())
+            && camObj.has("pipeline")) {
+          camPipeline = camObj.get("pipeline").getAsJsonObject();
+        }
+      }
+      PipelineConfig pipeline;
+      try {
+        pipeline = readPipelineConfig(common, camPipeline);
+      } catch (IllegalArgumentException ex) {
+        parseError("camera '" + cam.name + "': " + ex.getMessage()
+            + ", keeping its previous pipeline settings");
+        continue;
+      }
+      cam.pipelineConfig = camPipeline;
+      CameraVision vision = engine.getCamera(cam.name);
+      if (vision != null) {
+        vision.setPipelineConfig(pipeline);
+      }
+    }
+    pipelineConfig = common;
+    System.out.println("Reloaded pipeline settings from '" + configFile + "'");
+  }
 
-}
+  /**
+   * Build the geometry of a camera at its current video mode. Bad settings
+   * are reported and the defaults used.
+   */
+  public static CameraModel getCameraModel(CameraConfig config, VideoSource camera) {
+    VideoMode mode = camera.getVideoMode();
+    try {
+      return CameraModel.fromJson(config.cameraModel, mode.width, mode.height);
+    } catch (IllegalArgumentException ex) {
+      parseError("camera '" + config.name + "': " + ex.getMessage());
+      return new CameraModel(mode.width, mode.height, CameraModel.kDefaultFov);
+    }
+  }
 
+  /**
+   * Run the exposure calibration on a camera and save the best setting to
+   * the configuration file, where the camera settings pick it up from the
+   * next start on.
+   */
+  public static void calibrateCamera(CameraConfig config, VideoSource camera) {
+    if (!(camera instanceof VideoCamera)) {
+      return;
+    }
+    System.out.println("Calibrating exposure of camera '" + config.name + "'");
+    VideoCamera videoCamera = (VideoCamera) camera;
+    ExposureCalibration.Setting best = ExposureCalibration.calibrate(videoCamera,
+        getPipelineConfig(pipelineConfig, config), config.detector,
+        () -> applyCameraSettings(videoCamera, config));
+    if (best == null) {
+      System.err.println("camera '" + config.name + "': no targets seen, keeping the configured"
+          + " exposure");
+      return;
+    }
+    System.out.println("camera '" + config.name + "': " + best);
 
-  public static void sortCenX()
-  {
-    for(int i = 1; i < individualTapeTargets.size(); i++)
-    {
-        RotatedRect key = individualTapeTargets.get(i);
-        int index = i - 1;
-        while(index >= 0 && key.center.x < individualTapeTargets.get(index).center.x)
-        {
-            individualTapeTargets.set(index + 1, individualTapeTargets.get(index));
-            index--;
+    try {
+      JsonObject obj;
+      try (Reader reader = Files.newBufferedReader(Paths.get(configFile))) {
+        obj = new JsonParser().parse(reader).getAsJsonObject();
+      }
+      for (JsonElement element : obj.getAsJsonArray("cameras")) {
+        JsonObject camObj = element.getAsJsonObject();
+        if (camObj.has("name") && config.name.equals(camObj.get("name").getAsString())) {
+          camObj.addProperty("exposure", best.exposure);
+          camObj.addProperty("brightness", best.brightness);
+          camObj.addProperty("calibrate", false);
         }
-        individualTapeTargets.set(index + 1, key);
+      }
+      Files.write(Paths.get(configFile),
+          new GsonBuilder().setPrettyPrinting().create().toJson(obj).getBytes(StandardCharsets.UTF_8));
+    } catch (IOException | RuntimeException ex) {
+      System.err.println("could not save the calibration to '" + configFile + "': " + ex);
     }
+  }
 
+  /**
+   * Apply the default camera settings, then the frc.json ones over them.
+   */
+  public static void applyCameraSettings(VideoCamera camera, CameraConfig config) {
+    camera.setBrightness(40);
+    camera.setExposureManual(12);
+    camera.setWhiteBalanceManual(2675);
+    camera.setFPS(40);
+    camera.setConfigJson(new GsonBuilder().create().toJson(config.config));
   }
 
-  
-  static ArrayList<RotatedRect> individualTapeTargets;
+  /**
+   * Start running the camera.
+   */
+  public static VideoSource startCamera(CameraConfig config) {
+    System.out.println("Starting camera '" + config.name + "' on " + config.path);
+    CameraServer inst = CameraServer.getInstance();
+    UsbCamera camera = new UsbCamera(config.name, config.path);
+    MjpegServer server = inst.startAutomaticCapture(camera);
 
-  static int counter = 0; // this is just a temp, not to spam the console
-  static boolean outputInfo = false;
+    Gson gson = new GsonBuilder().create();
 
-  private static void WriteRoiToNetworkTable(NetworkTable table, double[] xOffset, double[] distance, double[]angle)
-  {
-    try {
-      
-      table.getEntry("xOffset").setDoubleArray(xOffset);
-      table.getEntry("distance").setDoubleArray(distance);        
-      table.getEntry("angle").setDoubleArray(angle);
-    } catch (Exception e) {
-      System.out.println("Exception writing NT");
+    applyCameraSettings(camera, config);
+    camera.setConnectionStrategy(VideoSource.ConnectionStrategy.kKeepOpen);
+
+    if (config.streamConfig != null) {
+      server.setConfigJson(gson.toJson(config.streamConfig));
+    }
+
+    // cscore decodes every MJPEG frame before the pipeline gets it
+    if (camera.getVideoMode().pixelFormat == VideoMode.PixelFormat.kMJPEG) {
+      System.out.println("camera '" + config.name + "': MJPEG capture decodes every frame,"
+          + " \"pixel format\": \"YUYV\" is cheaper if the USB bandwidth allows");
     }
+
+    return camera;
   }
 
   /**
    * Main.
    */
-
-  
   public static void main(String... args) {
     if (args.length > 0) {
       configFile = args[0];
@@ -531,79 +499,61 @@ public final class Main {
     // start cameras
     List<VideoSource> cameras = new ArrayList<>();
     for (CameraConfig cameraConfig : cameraConfigs) {
-      cameras.add(startCamera(cameraConfig));
-    }
-
-    // start image processing on camera 0 if present
-    if (cameras.size() >= 1) {
-      /*
-      VisionThread visionThread = new VisionThread(cameras.get(0),
-              new MyPipeline(), pipeline -> {
-        // do something with pipeline results
-      });
-      */
-      /* something like this for GRIP: */
-      VisionThread visionThread = new VisionThread(cameras.get(0),
-           new CardinalPipeline(), pipeline -> {
-
-
-          // publish the result to the
-          ArrayList<MatOfPoint> tapeContours = pipeline.findContoursOutput();
-          //MatOfKeyPoint cargoTargets = pipeline.findBlobsOutput();
-          individualTapeTargets = new ArrayList<>();
-
-          //adds targets to individual targets
-          for (int index = 0; index < tapeContours.size(); index++)
-          {
-              MatOfPoint contour = tapeContours.get(index);
-              individualTapeTargets.add(Imgproc.minAreaRect(new MatOfPoint2f(contour.toArray())));
-          }
-
-          //sort
-          sortCenX();
-          
-          
-          //Finds the grouping of vision targets
-          ArrayList<GoalTarget> fullTapeTargets = new ArrayList<>();
-
-          for (int index = 0; index < individualTapeTargets.size() - 1; index++)
-          {
-              if(individualTapeTargets.get(index).angle > -100 && individualTapeTargets.get(index).angle < -45 && individualTapeTargets.get(index + 1).angle > -40 && 
-                individualTapeTargets.get(index + 1).angle < 0)
-              {
-                  fullTapeTargets.add(new GoalTarget(individualTapeTargets.get(index  + 1), individualTapeTargets.get(index)));
-              }
-          }
-
-          double[] xOffset = new double[fullTapeTargets.size()];
-          double[] distance = new double[fullTapeTargets.size()];
-          double[] angle = new double[fullTapeTargets.size()];
-
-          for(int index = 0; index < fullTapeTargets.size(); index++)
-          {
-            GoalTarget target = fullTapeTargets.get(index);
-            xOffset[index] = CameraCalculations.getXOffset(target.targetWidth(), target.centerX());
-            distance[index] = CameraCalculations.getDistance(target.targetWidth(), target.centerX());
-            angle[index] = CameraCalculations.getHorizontalDegreesToPixels(target.centerX());
-          }
-
-          
-          WriteRoiToNetworkTable(roiTable, xOffset, distance, angle);
-         
-      });
-      
-      visionThread.start();
-    }
-
-    // loop forever
+      VideoSource camera = startCamera(cameraConfig);
+      if (cameraConfig.calibrate) {
+        calibrateCamera(cameraConfig, camera);
+      }
+      cameras.add(camera);
+    }
+
+    // start image processing on every camera, each with its own pipeline
+    MatPool.getInstance().setCap((long) (nativeMemoryCap * 1024 * 1024));
+    VisionEngine engine = new VisionEngine(roiTable, publishTolerance, legacyEntries,
+        latencyBudget);
+    DetectionLog detectionLog = null;
+    try {
+      detectionLog = DetectionLog.fromJson(detectionLogConfig);
+    } catch (IllegalArgumentException ex) {
+      parseError(ex.getMessage());
+    } catch (IOException ex) {
+      System.err.println("could not open the detection log: " + ex);
+    }
+    for (int i = 0; i < cameras.size(); i++) {
+      CameraConfig cameraConfig = cameraConfigs.get(i);
+      CameraVision vision = engine.addCamera(cameras.get(i),
+          getPipelineConfig(pipelineConfig, cameraConfig), cameraConfig.workers,
+          cameraConfig.detector, getCameraModel(cameraConfig, cameras.get(i)));
+      try {
+        vision.setDebugStream(DebugStream.fromJson(cameraConfig.name, cameraConfig.debugStream));
+      } catch (IllegalArgumentException ex) {
+        parseError("camera '" + cameraConfig.name + "': " + ex.getMessage());
+      }
+      try {
+        vision.setDetectionLog(detectionLog);
+      } catch (IllegalArgumentException ex) {
+        System.err.println("camera '" + cameraConfig.name + "': " + ex.getMessage());
+      }
+    }
+    engine.start();
+
+    // loop forever, reloading the pipeline settings when the file changes
+    File file = new File(configFile);
+    long lastModified = file.lastModified();
     for (;;) {
       try {
-        Thread.sleep(10000);
+        Thread.sleep(1000);
       } catch (InterruptedException ex) {
+        engine.stop();
+        if (detectionLog != null) {
+          detectionLog.close();
+        }
         return;
       }
+      if (file.lastModified() != lastModified) {
+        lastModified = file.lastModified();
+        reloadPipelineConfig(engine);
+      }
     }
   }
 
 }
-
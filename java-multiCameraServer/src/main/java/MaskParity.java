@@ -0,0 +1,111 @@
+import java.io.File;
+import java.util.List;
+
+import com.google.gson.JsonObject;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+
+/**
+ * Checks an alternative threshold stage against the HSL threshold.
+ *
+ * <p>Runs the pipeline with {@code "threshold": "HSL"} and with the given
+ * threshold setting over the same frames, and reports how well the masks
+ * overlap (intersection over union), whether the same number of goal targets
+ * is found, and the blur + threshold time of both, per frame and on
+ * average. Exits with status 1 if the overlap of any frame is below the
+ * minimum.
+ *
+ * <pre>
+ *   java -cp java-multiCameraServer-all.jar MaskParity &lt;threshold&gt; [frame directory] [min overlap]
+ * </pre>
+ *
+ * <p>E.g. {@code MaskParity GREEN frames/320x240} before switching a camera
+ * to the single channel threshold.
+ *
+ * <p>Without a frame directory, synthetic 320x240 frames are used.
+ */
+public final class MaskParity {
+  private MaskParity() {
+  }
+
+  /**
+   * Main.
+   */
+  public static void main(String... args) {
+    if (args.length < 1) {
+      System.err.println("usage: MaskParity <threshold> [frame directory] [min overlap]");
+      System.exit(2);
+    }
+    List<Mat> frames = args.length > 1 ? SyntheticFrames.load(new File(args[1]))
+        : SyntheticFrames.generateSet(320, 240, 30);
+    double minOverlap = args.length > 2 ? Double.parseDouble(args[2]) : 0.9;
+    if (frames.isEmpty()) {
+      System.err.println("no frames to process");
+      System.exit(1);
+    }
+
+    JsonObject reference = new JsonObject();
+    reference.addProperty("threshold", "HSL");
+    JsonObject candidate = new JsonObject();
+    candidate.addProperty("threshold", args[0]);
+    TargetFinder referenceFinder = new TargetFinder(
+        new CardinalPipeline(PipelineConfig.kDefault.with(reference)));
+    TargetFinder candidateFinder = new TargetFinder(
+        new CardinalPipeline(PipelineConfig.kDefault.with(candidate)));
+
+    Mat intersection = new Mat();
+    Mat union = new Mat();
+    double worstOverlap = 1;
+    double overlapTotal = 0;
+    int sameTargets = 0;
+    long referenceNanos = 0;
+    long candidateNanos = 0;
+
+    for (int i = 0; i < frames.size(); i++) {
+      int referenceTargets = referenceFinder.findTargets(frames.get(i)).size();
+      int candidateTargets = candidateFinder.findTargets(frames.get(i)).size();
+      long referenceFrameNanos = thresholdNanos(referenceFinder.getPipeline());
+      long candidateFrameNanos = thresholdNanos(candidateFinder.getPipeline());
+      referenceNanos += referenceFrameNanos;
+      candidateNanos += candidateFrameNanos;
+
+      Mat referenceMask = referenceFinder.getPipeline().maskOutput();
+      Mat candidateMask = candidateFinder.getPipeline().maskOutput();
+      Core.bitwise_and(referenceMask, candidateMask, intersection);
+      Core.bitwise_or(referenceMask, candidateMask, union);
+      int unionPixels = Core.countNonZero(union);
+      double overlap = unionPixels == 0 ? 1 : Core.countNonZero(intersection) / (double) unionPixels;
+
+      worstOverlap = Math.min(worstOverlap, overlap);
+      overlapTotal += overlap;
+      if (referenceTargets == candidateTargets) {
+        sameTargets++;
+      }
+      System.out.println(String.format("frame %d: overlap %.3f, targets %d vs %d, %.2f vs %.2f ms",
+          i, overlap, referenceTargets, candidateTargets, referenceFrameNanos / 1e6,
+          candidateFrameNanos / 1e6));
+    }
+
+    System.out.println(String.format("%d frames: overlap mean %.3f worst %.3f, same targets in %d",
+        frames.size(), overlapTotal / frames.size(), worstOverlap, sameTargets));
+    System.out.println(String.format("blur + threshold: HSL %.2f ms, %s %.2f ms per frame",
+        referenceNanos / 1e6 / frames.size(), args[0], candidateNanos / 1e6 / frames.size()));
+
+    intersection.release();
+    union.release();
+    referenceFinder.release();
+    candidateFinder.release();
+    if (worstOverlap < minOverlap) {
+      System.err.println("FAILED: overlap below " + minOverlap);
+      System.exit(1);
+    }
+    System.out.println("PASSED");
+  }
+
+  private static long thresholdNanos(TapeDetector pipeline) {
+    long[] stageNanos = pipeline.stageNanos();
+    return stageNanos[PipelineMetrics.Stage.BLUR.ordinal()]
+        + stageNanos[PipelineMetrics.Stage.THRESHOLD.ordinal()];
+  }
+}
@@ -0,0 +1,246 @@
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import edu.wpi.first.networktables.NetworkTable;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Process wide pool of the native image buffers of the pipelines, with
+ * accounting of the native memory in use.
+ *
+ * <p>The Java heap does not see OpenCV's native memory, so the garbage
+ * collector never runs because of it, and a pipeline that reallocates its
+ * images whenever the search window changes size can grow the process
+ * until it is killed. Instead, the stages borrow their images from this
+ * pool. Buffers come in size classes of eighths of a power of two, so an
+ * image of a slightly different size reuses a returned buffer; the image
+ * is a view of the first bytes of the buffer.
+ *
+ * <p>Live bytes are counted per {@link Use}, including native memory that is
+ * not pooled, like the captured frames and the contours, which is reported
+ * with {@link #account}. Above the cap, idle buffers are freed first; if a
+ * borrow still does not fit, it throws {@link CapExceededException} and the
+ * caller drops the frame.
+ */
+public final class MatPool {
+  /**
+   * What native memory is used for.
+   */
+  public enum Use {
+    FRAMES("frames"), BLUR("blur"), THRESHOLD("threshold"), CONTOURS("contours"),
+    COMPONENTS("components");
+
+    public static final Use[] kUses = values();
+
+    private final String label;
+
+    Use(String label) {
+      this.label = label;
+    }
+
+    @Override
+    public String toString() {
+      return label;
+    }
+  }
+
+  /**
+   * Thrown when a borrow would take the native memory over the cap.
+   */
+  public static class CapExceededException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    CapExceededException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * A borrowed image, to be given back to the pool.
+   */
+  public static final class Lease {
+    private final Mat buffer;
+    private final long key;
+    private final long bytes;
+    private final Use use;
+    private final Mat mat;
+
+    Lease(Mat buffer, long key, long bytes, Use use, Mat mat) {
+      this.buffer = buffer;
+      this.key = key;
+      this.bytes = bytes;
+      this.use = use;
+      this.mat = mat;
+    }
+
+    /**
+     * The image, valid until the lease is given back.
+     */
+    public Mat mat() {
+      return mat;
+    }
+
+    /**
+     * Whether the image has the given size and type.
+     */
+    public boolean matches(int rows, int cols, int type) {
+      return mat.rows() == rows && mat.cols() == cols && mat.type() == type;
+    }
+  }
+
+  private static final long kMinClassBytes = 4096;
+
+  private static final MatPool instance = new MatPool();
+
+  private final Map<Long, ArrayDeque<Mat>> idle = new HashMap<>();
+  private final long[] liveBytes = new long[Use.kUses.length];
+  private long idleBytes;
+  private long capBytes;
+  private long capExceeded;
+
+  private MatPool() {
+  }
+
+  public static MatPool getInstance() {
+    return instance;
+  }
+
+  /**
+   * Set the most native memory that may be in use, 0 for no limit.
+   */
+  public synchronized void setCap(long bytes) {
+    capBytes = bytes;
+  }
+
+  /**
+   * Borrow an image.
+   * @param rows the image height
+   * @param cols the image width
+   * @param type the OpenCV type
+   * @param use what the image is used for
+   * @throws CapExceededException if the image does not fit under the cap
+   */
+  public synchronized Lease borrow(int rows, int cols, int type, Use use) {
+    int depthType = CvType.makeType(CvType.depth(type), 1);
+    int channels = CvType.channels(type);
+    long elements = (long) rows * cols * channels;
+    long bytes = classBytes(elements * CvType.ELEM_SIZE(depthType));
+    long key = bytes * 8 + CvType.depth(type);
+
+    ArrayDeque<Mat> free = idle.get(key);
+    Mat buffer = free != null ? free.poll() : null;
+    if (buffer != null) {
+      idleBytes -= bytes;
+    } else {
+      makeRoom(bytes);
+      buffer = new Mat(1, (int) (bytes / CvType.ELEM_SIZE(depthType)), depthType);
+    }
+    liveBytes[use.ordinal()] += bytes;
+
+    Mat range = buffer.colRange(0, (int) elements);
+    Mat mat = range.reshape(channels, rows);
+    range.release();
+    return new Lease(buffer, key, bytes, use, mat);
+  }
+
+  /**
+   * Return a lease if it does not have the given size and type, and borrow
+   * one that does. The new image is borrowed first, so if that fails the
+   * old lease is still held.
+   * @param lease the current lease, or null
+   * @return the lease to use from now on
+   * @throws CapExceededException if the image does not fit under the cap
+   */
+  public Lease renew(Lease lease, int rows, int cols, int type, Use use) {
+    if (lease != null && lease.matches(rows, cols, type)) {
+      return lease;
+    }
+    Lease renewed = borrow(rows, cols, type, use);
+    giveBack(lease);
+    return renewed;
+  }
+
+  /**
+   * Give back a lease. The image must no longer be used.
+   * @param lease the lease, or null for none
+   */
+  public synchronized void giveBack(Lease lease) {
+    if (lease == null) {
+      return;
+    }
+    lease.mat.release();
+    liveBytes[lease.use.ordinal()] -= lease.bytes;
+    idle.computeIfAbsent(lease.key, key -> new ArrayDeque<>()).push(lease.buffer);
+    idleBytes += lease.bytes;
+  }
+
+  /**
+   * Count native memory that is not borrowed from the pool.
+   * @param use what the memory is used for
+   * @param bytes the bytes allocated, or negative for bytes freed
+   */
+  public synchronized void account(Use use, long bytes) {
+    liveBytes[use.ordinal()] += bytes;
+  }
+
+  /**
+   * Free idle buffers until an allocation fits under the cap.
+   */
+  private void makeRoom(long bytes) {
+    if (capBytes <= 0) {
+      return;
+    }
+    Iterator<ArrayDeque<Mat>> classes = idle.values().iterator();
+    while (totalBytes() + bytes > capBytes && classes.hasNext()) {
+      ArrayDeque<Mat> free = classes.next();
+      Mat buffer;
+      while (totalBytes() + bytes > capBytes && (buffer = free.poll()) != null) {
+        idleBytes -= buffer.total() * buffer.elemSize();
+        buffer.release();
+      }
+    }
+    if (totalBytes() + bytes > capBytes) {
+      capExceeded++;
+      throw new CapExceededException("native memory cap of " + capBytes + " bytes reached");
+    }
+  }
+
+  private long totalBytes() {
+    long total = idleBytes;
+    for (long bytes : liveBytes) {
+      total += bytes;
+    }
+    return total;
+  }
+
+  /**
+   * The size class of an allocation: the next multiple of an eighth of the
+   * power of two below it.
+   */
+  static long classBytes(long bytes) {
+    if (bytes <= kMinClassBytes) {
+      return kMinClassBytes;
+    }
+    long step = Long.highestOneBit(bytes - 1) / 8;
+    return (bytes + step - 1) / step * step;
+  }
+
+  /**
+   * Publish the live bytes per use, the idle and total bytes and the number
+   * of borrows refused since the last call.
+   */
+  public synchronized void publish(NetworkTable table) {
+    for (Use use : Use.kUses) {
+      table.getEntry("native bytes " + use).setDouble(liveBytes[use.ordinal()]);
+    }
+    table.getEntry("native bytes idle").setDouble(idleBytes);
+    table.getEntry("native bytes total").setDouble(totalBytes());
+    table.getEntry("native bytes cap").setDouble(capBytes);
+    table.getEntry("borrows over cap").setDouble(capExceeded);
+    capExceeded = 0;
+  }
+}
@@ -0,0 +1,251 @@
+import java.util.Map;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableValue;
+
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+
+/**
+ * Immutable snapshot of the tunable {@link CardinalPipeline} parameters.
+ *
+ * <p>Every setting is parsed and converted once, when the snapshot is built,
+ * into the form the pipeline uses directly ({@link Scalar} bounds, kernel
+ * {@link Size}). A running pipeline swaps in a whole new snapshot between
+ * frames, so a frame never sees a half-applied change.
+ *
+ * <p>Settings come from the {@code "pipeline"} section of frc.json, at the top
+ * level for all cameras and per camera as an override, and from the
+ * {@code VisionTarget/<camera>/pipeline} NetworkTables subtable at runtime.
+ */
+public final class PipelineConfig {
+  /**
+   * The values tuned in GRIP for the 2019 retroreflective tape.
+   */
+  public static final PipelineConfig kDefault = new PipelineConfig(defaultValues());
+
+  public static final int kMaxPyramidLevels = 3;
+
+  private final JsonObject values;
+
+  public final CardinalPipeline.BlurType blurType;
+  public final int blurRadius;
+  public final Size blurKernelSize;
+  public final Scalar hslLower;
+  public final Scalar hslUpper;
+  public final boolean greenThreshold;
+  public final double greenMin;
+  public final int thresholdThreads;
+  public final boolean externalOnly;
+  public final double minArea;
+  public final double minPerimeter;
+  public final double minWidth;
+  public final double maxWidth;
+  public final double minHeight;
+  public final double maxHeight;
+  public final double minSolidity;
+  public final double maxSolidity;
+  public final double minVertices;
+  public final double maxVertices;
+  public final double minRatio;
+  public final double maxRatio;
+  public final boolean tracking;
+  public final double trackingMargin;
+  public final int trackingMinMargin;
+  public final int pyramidLevels;
+  public final int trackMaxMissed;
+  public final double trackGate;
+  public final boolean solvePose;
+  /**
+   * The settings scaled to the downscaled pyramid level, or null if the
+   * pyramid mode is off.
+   */
+  public final PipelineConfig pyramidConfig;
+
+  private PipelineConfig(JsonObject values) {
+    this.values = values;
+
+    blurType = CardinalPipeline.BlurType.get(values.get("blur type").getAsString());
+    blurRadius = (int) (values.get("blur radius").getAsDouble() + 0.5);
+    int kernelSize = blurType == CardinalPipeline.BlurType.GAUSSIAN ? 6 * blurRadius + 1
+        : 2 * blurRadius + 1;
+    blurKernelSize = new Size(kernelSize, kernelSize);
+
+    // HLS channel order is hue, luminance, saturation
+    hslLower = new Scalar(get("hue min"), get("luminance min"), get("saturation min"));
+    hslUpper = new Scalar(get("hue max"), get("luminance max"), get("saturation max"));
+    String threshold = values.get("threshold").getAsString();
+    if (!"HSL".equalsIgnoreCase(threshold) && !"GREEN".equalsIgnoreCase(threshold)) {
+      throw new IllegalArgumentException("threshold must be \"HSL\" or \"GREEN\"");
+    }
+    greenThreshold = "GREEN".equalsIgnoreCase(threshold);
+    greenMin = get("green min");
+    if (greenMin < 0 || greenMin > 255) {
+      throw new IllegalArgumentException("green min must be 0 to 255");
+    }
+    thresholdThreads = values.get("threshold threads").getAsInt();
+    if (thresholdThreads < 1 || thresholdThreads > TiledThreshold.kMaxThreads) {
+      throw new IllegalArgumentException("threshold threads must be 1 to "
+          + TiledThreshold.kMaxThreads);
+    }
+
+    externalOnly = values.get("external only").getAsBoolean();
+    minArea = get("min area");
+    minPerimeter = get("min perimeter");
+    minWidth = get("min width");
+    maxWidth = get("max width");
+    minHeight = get("min height");
+    maxHeight = get("max height");
+    minSolidity = get("solidity min");
+    maxSolidity = get("solidity max");
+    minVertices = get("min vertices");
+    maxVertices = get("max vertices");
+    minRatio = get("min ratio");
+    maxRatio = get("max ratio");
+    tracking = values.get("tracking").getAsBoolean();
+    trackingMargin = get("tracking margin");
+    trackingMinMargin = (int) get("tracking min margin");
+
+    trackMaxMissed = (int) get("track max missed");
+    trackGate = get("track gate");
+    solvePose = values.get("solve pose").getAsBoolean();
+
+    pyramidLevels = values.get("pyramid levels").getAsInt();
+    if (pyramidLevels < 0 || pyramidLevels > kMaxPyramidLevels) {
+      throw new IllegalArgumentException("pyramid levels must be 0 to " + kMaxPyramidLevels);
+    }
+    pyramidConfig = pyramidLevels > 0 ? scaledToPyramid() : null;
+  }
+
+  /**
+   * Scale the pixel based settings down to the pyramid level.
+   */
+  private PipelineConfig scaledToPyramid() {
+    double scale = 1 << pyramidLevels;
+    JsonObject scaled = new JsonObject();
+    scaled.addProperty("pyramid levels", 0);
+    scaled.addProperty("blur radius", get("blur radius") / scale);
+    scaled.addProperty("min area", minArea / (scale * scale));
+    scaled.addProperty("min perimeter", minPerimeter / scale);
+    scaled.addProperty("min width", minWidth / scale);
+    scaled.addProperty("max width", maxWidth / scale);
+    scaled.addProperty("min height", minHeight / scale);
+    scaled.addProperty("max height", maxHeight / scale);
+    return with(scaled);
+  }
+
+  private static JsonObject defaultValues() {
+    JsonObject values = new JsonObject();
+    values.addProperty("blur type", CardinalPipeline.BlurType.BOX.toString());
+    values.addProperty("blur radius", 3.6036036036036037);
+    values.addProperty("hue min", 66.36690647482014);
+    values.addProperty("hue max", 100.13651877133107);
+    values.addProperty("saturation min", 50.47662503622397);
+    values.addProperty("saturation max", 255.0);
+    values.addProperty("luminance min", 149.05575539568346);
+    values.addProperty("luminance max", 248.47269624573377);
+    // "HSL": blur, cvtColor and inRange;
+    // "GREEN": blur of the single channel G - max(R, B), kept above "green min"
+    values.addProperty("threshold", "HSL");
+    values.addProperty("green min", 40.0);
+    // blur and threshold the "HSL" way in this many strips in parallel
+    values.addProperty("threshold threads", 1);
+    values.addProperty("external only", false);
+    values.addProperty("min area", 20.0);
+    values.addProperty("min perimeter", 0.0);
+    values.addProperty("min width", 0.0);
+    values.addProperty("max width", 1000.0);
+    values.addProperty("min height", 5.0);
+    values.addProperty("max height", 1000.0);
+    values.addProperty("solidity min", 64.74820143884892);
+    values.addProperty("solidity max", 100.0);
+    values.addProperty("min vertices", 0.0);
+    values.addProperty("max vertices", 1000000.0);
+    values.addProperty("min ratio", 0.0);
+    values.addProperty("max ratio", 1000.0);
+    // search only around the last target, margin as a fraction of its size
+    values.addProperty("tracking", false);
+    values.addProperty("tracking margin", 0.5);
+    values.addProperty("tracking min margin", 20);
+    // find candidates on a frame downscaled this many times, refine at full size
+    values.addProperty("pyramid levels", 0);
+    // frames a target is predicted for after it was last seen, and the
+    // association gate (squared normalized innovation, 99% for 3 values)
+    values.addProperty("track max missed", 5);
+    values.addProperty("track gate", 11.34);
+    // solve the full pose of every target from its tape corners
+    values.addProperty("solve pose", false);
+    return values;
+  }
+
+  private double get(String key) {
+    return values.get(key).getAsDouble();
+  }
+
+  /**
+   * Create a new snapshot with some settings replaced.
+   * @param overrides the settings to replace, e.g. a "pipeline" section of frc.json
+   * @return the new snapshot
+   * @throws IllegalArgumentException if a setting is unknown or has the wrong type
+   */
+  public PipelineConfig with(JsonObject overrides) {
+    JsonObject merged = values.deepCopy();
+    for (Map.Entry<String, JsonElement> entry : overrides.entrySet()) {
+      if (!values.has(entry.getKey())) {
+        throw new IllegalArgumentException("unknown pipeline setting '" + entry.getKey() + "'");
+      }
+      merged.add(entry.getKey(), entry.getValue());
+    }
+    try {
+      return new PipelineConfig(merged);
+    } catch (RuntimeException ex) {
+      throw new IllegalArgumentException("bad pipeline setting: " + ex.getMessage(), ex);
+    }
+  }
+
+  /**
+   * Create a new snapshot with a setting replaced by a NetworkTables value.
+   * @throws IllegalArgumentException if the setting is unknown or has the wrong type
+   */
+  public PipelineConfig with(String key, NetworkTableValue value) {
+    JsonObject override = new JsonObject();
+    if (value.isDouble()) {
+      override.addProperty(key, value.getDouble());
+    } else if (value.isBoolean()) {
+      override.addProperty(key, value.getBoolean());
+    } else if (value.isString()) {
+      override.addProperty(key, value.getString());
+    } else {
+      throw new IllegalArgumentException("pipeline setting '" + key + "' has unsupported type "
+          + value.getType());
+    }
+    return with(override);
+  }
+
+  /**
+   * Write every setting to a table so it can be tuned from a dashboard.
+   */
+  public void publish(NetworkTable table) {
+    for (Map.Entry<String, JsonElement> entry : values.entrySet()) {
+      JsonPrimitive value = entry.getValue().getAsJsonPrimitive();
+      if (value.isBoolean()) {
+        table.getEntry(entry.getKey()).setBoolean(value.getAsBoolean());
+      } else if (value.isString()) {
+        table.getEntry(entry.getKey()).setString(value.getAsString());
+      } else {
+        table.getEntry(entry.getKey()).setDouble(value.getAsDouble());
+      }
+    }
+  }
+
+  /**
+   * The settings of this snapshot in frc.json form.
+   */
+  public JsonObject toJson() {
+    return values.deepCopy();
+  }
+}
@@ -0,0 +1,149 @@
+import edu.wpi.first.networktables.NetworkTable;
+
+/**
+ * Per-stage latency and frame counters of one camera.
+ *
+ * <p>The vision thread records a whole frame at once with
+ * {@link #recordFrame}; {@link #publish} runs on the reporting thread once a
+ * second, writes the percentiles of the last period and starts a new one.
+ */
+public class PipelineMetrics {
+  /**
+   * The timed steps of a frame.
+   */
+  public enum Stage {
+    BLUR("blur"), THRESHOLD("threshold"), FIND_CONTOURS("find contours"),
+    FILTER_CONTOURS("filter contours"), PAIRING("pairing"), POSE("pose"), PUBLISH("publish"),
+    PROCESS("process"), END_TO_END("capture to publish");
+
+    public static final Stage[] kStages = values();
+
+    private final String label;
+
+    Stage(String label) {
+      this.label = label;
+    }
+
+    @Override
+    public String toString() {
+      return label;
+    }
+  }
+
+  /**
+   * The reasons filterContours rejects a contour for, in the order tested.
+   */
+  public enum Rejection {
+    VERTICES("vertices"), SIZE("size"), RATIO("ratio"), AREA("area"), PERIMETER("perimeter"),
+    SOLIDITY("solidity");
+
+    public static final Rejection[] kRejections = values();
+
+    private final String label;
+
+    Rejection(String label) {
+      this.label = label;
+    }
+
+    @Override
+    public String toString() {
+      return label;
+    }
+  }
+
+  private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.kStages.length];
+  private final long[] rejected = new long[Rejection.kRejections.length];
+  private long framesProcessed;
+  private long framesDropped;
+  private long framesUnchanged;
+  private long framesOverCap;
+  private long framesSkipped;
+
+  public PipelineMetrics() {
+    for (int i = 0; i < histograms.length; i++) {
+      histograms[i] = new LatencyHistogram();
+    }
+  }
+
+  /**
+   * Record the timings of a processed frame.
+   * @param stageNanos the duration of each {@link Stage} in nanoseconds,
+   *     except END_TO_END
+   * @param frameTime the capture time of the frame in microseconds
+   * @param publishTime the time the results were published in microseconds
+   * @param rejections the contours rejected by filterContours per {@link Rejection}
+   */
+  public synchronized void recordFrame(long[] stageNanos, long frameTime, long publishTime,
+      long[] rejections) {
+    for (int i = 0; i < stageNanos.length; i++) {
+      if (i != Stage.END_TO_END.ordinal()) {
+        histograms[i].recordNanos(stageNanos[i]);
+      }
+    }
+    histograms[Stage.END_TO_END.ordinal()].recordMicros(publishTime - frameTime);
+    for (int i = 0; i < rejected.length; i++) {
+      rejected[i] += rejections[i];
+    }
+    framesProcessed++;
+  }
+
+  /**
+   * Record frames that were captured but never published.
+   */
+  public synchronized void recordDropped(long frames) {
+    framesDropped += frames;
+  }
+
+  /**
+   * Record frames that were not published because their results did not
+   * change.
+   */
+  public synchronized void recordUnchanged(long frames) {
+    framesUnchanged += frames;
+  }
+
+  /**
+   * Record frames that were not processed to keep within the latency
+   * budget, see {@link QosScheduler}.
+   */
+  public synchronized void recordSkipped(long frames) {
+    framesSkipped += frames;
+  }
+
+  /**
+   * Record frames that were dropped because the native memory cap of the
+   * {@link MatPool} was reached.
+   */
+  public synchronized void recordOverCap(long frames) {
+    framesOverCap += frames;
+  }
+
+  /**
+   * Publish the p50/p95/p99 of every stage in milliseconds, the frame
+   * counters and the contours rejected per reason since the last call, then
+   * reset the histograms.
+   */
+  public synchronized void publish(NetworkTable table) {
+    for (Stage stage : Stage.kStages) {
+      LatencyHistogram histogram = histograms[stage.ordinal()];
+      table.getEntry(stage + " p50").setDouble(histogram.percentileMicros(50) / 1000.0);
+      table.getEntry(stage + " p95").setDouble(histogram.percentileMicros(95) / 1000.0);
+      table.getEntry(stage + " p99").setDouble(histogram.percentileMicros(99) / 1000.0);
+      histogram.reset();
+    }
+    for (Rejection reason : Rejection.kRejections) {
+      table.getEntry("rejected " + reason).setDouble(rejected[reason.ordinal()]);
+      rejected[reason.ordinal()] = 0;
+    }
+    table.getEntry("frames processed").setDouble(framesProcessed);
+    table.getEntry("frames dropped").setDouble(framesDropped);
+    table.getEntry("frames unchanged").setDouble(framesUnchanged);
+    table.getEntry("frames over memory cap").setDouble(framesOverCap);
+    table.getEntry("frames skipped").setDouble(framesSkipped);
+    framesProcessed = 0;
+    framesDropped = 0;
+    framesUnchanged = 0;
+    framesOverCap = 0;
+    framesSkipped = 0;
+  }
+}
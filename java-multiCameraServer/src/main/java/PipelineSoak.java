@@ -0,0 +1,115 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.opencv.core.Mat;
+
+/**
+ * Soak test for the vision hot path.
+ *
+ * <p>Runs the pipeline and target pairing over a set of frames for a number
+ * of minutes and checks that neither native memory (process RSS) nor the Java
+ * heap keeps growing once warmed up. Exits with status 1 if either does.
+ *
+ * <pre>
+ *   java -cp java-multiCameraServer-all.jar PipelineSoak [minutes] [frame directory]
+ * </pre>
+ *
+ * <p>Without a frame directory, synthetic 320x240 frames are used.
+ */
+public final class PipelineSoak {
+  private static final long kSampleMillis = 10000;
+  private static final long kRssSlackKb = 16 * 1024;
+  private static final long kHeapSlackBytes = 8 * 1024 * 1024;
+
+  private PipelineSoak() {
+  }
+
+  /**
+   * Main.
+   */
+  public static void main(String... args) {
+    double minutes = args.length > 0 ? Double.parseDouble(args[0]) : 10;
+    List<Mat> frames = args.length > 1 ? SyntheticFrames.load(new File(args[1]))
+        : SyntheticFrames.generateSet(320, 240, 30);
+    if (frames.isEmpty()) {
+      System.err.println("no frames to process");
+      System.exit(1);
+    }
+
+    TargetFinder finder = new TargetFinder(new CardinalPipeline());
+    long end = System.currentTimeMillis() + (long) (minutes * 60000);
+    long warmupEnd = System.currentTimeMillis() + Math.min(60000, (long) (minutes * 6000));
+    long nextSample = System.currentTimeMillis() + kSampleMillis;
+    long baselineRss = -1;
+    long baselineHeap = -1;
+    long maxRss = 0;
+    long maxHeap = 0;
+    long processed = 0;
+
+    while (System.currentTimeMillis() < end) {
+      finder.findTargets(frames.get((int) (processed % frames.size())));
+      processed++;
+
+      long now = System.currentTimeMillis();
+      if (now < nextSample) {
+        continue;
+      }
+      nextSample = now + kSampleMillis;
+      long rss = residentKb();
+      long heap = usedHeapAfterGc();
+      System.out.println(String.format("%d frames, rss %d kB, heap %d kB", processed, rss,
+          heap / 1024));
+      if (now < warmupEnd) {
+        continue;
+      }
+      if (baselineRss < 0) {
+        baselineRss = rss;
+        baselineHeap = heap;
+      }
+      maxRss = Math.max(maxRss, rss);
+      maxHeap = Math.max(maxHeap, heap);
+    }
+
+    finder.release();
+    if (baselineRss < 0) {
+      System.err.println("soak too short to take a baseline after warm-up");
+      System.exit(1);
+    }
+
+    long rssGrowth = maxRss - baselineRss;
+    long heapGrowth = maxHeap - baselineHeap;
+    System.out.println(String.format("%d frames, rss growth %d kB, heap growth %d kB", processed,
+        rssGrowth, heapGrowth / 1024));
+    if (rssGrowth > kRssSlackKb || heapGrowth > kHeapSlackBytes) {
+      System.err.println("FAILED: memory is not flat");
+      System.exit(1);
+    }
+    System.out.println("PASSED");
+  }
+
+  private static long usedHeapAfterGc() {
+    Runtime runtime = Runtime.getRuntime();
+    System.gc();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  /**
+   * The resident set size of this process in kB, which includes native memory
+   * allocated by OpenCV.
+   */
+  private static long residentKb() {
+    try {
+      for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+        if (line.startsWith("VmRSS:")) {
+          return Long.parseLong(line.replaceAll("[^0-9]", ""));
+        }
+      }
+    } catch (IOException ex) {
+      System.err.println("could not read /proc/self/status: " + ex);
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,183 @@
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.MatOfPoint3f;
+import org.opencv.core.Point;
+import org.opencv.core.Point3;
+import org.opencv.core.RotatedRect;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Solves the full pose of a goal target from the corners of its two tapes.
+ *
+ * <p>Only the eight corner points are undistorted, not the frame, into
+ * normalized image coordinates, so solvePnP then runs against an identity
+ * camera matrix. The corners of each tape are matched to the model by
+ * order: topmost, rightmost, bottommost, leftmost, which is unambiguous for
+ * the tapes tilted 14.5 degrees.
+ *
+ * <p>The pose is the translation of the target center in the camera frame
+ * (x right, y down, z forward) in meters, and the rotation of the target as
+ * an OpenCV rotation vector. One estimator per worker, its buffers are
+ * reused between targets.
+ */
+public class PoseEstimator {
+  public static final int kPoseValues = 6;
+
+  // the 2019 tapes: 2 in x 5.5 in, tops tilted 14.5 degrees toward each other
+  private static final double kTapeWidth = 0.0508;
+  private static final double kTapeLength = 0.1397;
+  private static final double kTapeTilt = Math.toRadians(14.5);
+
+  private final CameraModel model;
+  private final Mat cameraMatrix;
+  private final MatOfDouble distortion;
+  private final double fx;
+  private final double fy;
+  private final double cx;
+  private final double cy;
+  private final Mat identity = Mat.eye(3, 3, CvType.CV_64F);
+  private final MatOfDouble noDistortion = new MatOfDouble();
+  private final MatOfPoint3f objectPoints;
+
+  private final Point[] corners = new Point[8];
+  private final Point[] tapeCorners = new Point[4];
+  private final MatOfPoint2f imagePoints = new MatOfPoint2f();
+  private final MatOfPoint2f normalizedPoints = new MatOfPoint2f();
+  private final Mat rvec = new Mat();
+  private final Mat tvec = new Mat();
+  private final double[] vector = new double[3];
+
+  public PoseEstimator(CameraModel model) {
+    this.model = model;
+    cameraMatrix = model.cameraMatrix();
+    double[] coefficients = model.distortion();
+    distortion = coefficients.length > 0 ? new MatOfDouble(coefficients) : null;
+    fx = cameraMatrix.get(0, 0)[0];
+    fy = cameraMatrix.get(1, 1)[0];
+    cx = cameraMatrix.get(0, 2)[0];
+    cy = cameraMatrix.get(1, 2)[0];
+
+    // in the target plane, x right and y down from the target center
+    Point3[] points = new Point3[8];
+    Point[] tape = new Point[4];
+    for (int side = 0; side < 2; side++) {
+      double sign = side == 0 ? -1 : 1;
+      double centerX = sign * CameraModel.kTargetSpacing / 2;
+      // the long axis, pointing up, leans toward the target center
+      double axisX = -sign * Math.sin(kTapeTilt) * kTapeLength / 2;
+      double axisY = -Math.cos(kTapeTilt) * kTapeLength / 2;
+      double acrossX = Math.cos(kTapeTilt) * kTapeWidth / 2;
+      double acrossY = -sign * Math.sin(kTapeTilt) * kTapeWidth / 2;
+      tape[0] = new Point(centerX + axisX + acrossX, axisY + acrossY);
+      tape[1] = new Point(centerX + axisX - acrossX, axisY - acrossY);
+      tape[2] = new Point(centerX - axisX - acrossX, -axisY - acrossY);
+      tape[3] = new Point(centerX - axisX + acrossX, -axisY + acrossY);
+      orderCorners(tape);
+      for (int i = 0; i < 4; i++) {
+        points[4 * side + i] = new Point3(tape[i].x, tape[i].y, 0);
+      }
+    }
+    objectPoints = new MatOfPoint3f(points);
+  }
+
+  /**
+   * Solve the pose of a target.
+   * @param target the paired tapes
+   * @param pose receives the six pose values at offset
+   * @param offset the index of the first value in pose
+   * @return false if there is no solution, the values are then NaN
+   */
+  public boolean solve(GoalTarget target, double[] pose, int offset) {
+    addCorners(target.leftTape(), 0);
+    addCorners(target.rightTape(), 4);
+    normalize();
+
+    boolean solved;
+    try {
+      solved = Calib3d.solvePnP(objectPoints, normalizedPoints, identity, noDistortion, rvec, tvec,
+          false, Calib3d.SOLVEPNP_ITERATIVE);
+    } catch (RuntimeException ex) {
+      solved = false;
+    }
+    if (!solved) {
+      for (int i = 0; i < kPoseValues; i++) {
+        pose[offset + i] = Double.NaN;
+      }
+      return false;
+    }
+    tvec.get(0, 0, vector);
+    System.arraycopy(vector, 0, pose, offset, 3);
+    rvec.get(0, 0, vector);
+    System.arraycopy(vector, 0, pose, offset + 3, 3);
+    return true;
+  }
+
+  private void addCorners(RotatedRect tape, int first) {
+    tape.points(tapeCorners);
+    orderCorners(tapeCorners);
+    System.arraycopy(tapeCorners, 0, corners, first, 4);
+  }
+
+  /**
+   * The corners as normalized image coordinates, undistorted if the camera
+   * has distortion.
+   */
+  private void normalize() {
+    if (distortion != null) {
+      imagePoints.fromArray(corners);
+      Imgproc.undistortPoints(imagePoints, normalizedPoints, cameraMatrix, distortion);
+      return;
+    }
+    for (Point corner : corners) {
+      corner.x = (corner.x - cx) / fx;
+      corner.y = (corner.y - cy) / fy;
+    }
+    normalizedPoints.fromArray(corners);
+  }
+
+  /**
+   * Order the four corners of a tape topmost, rightmost, bottommost,
+   * leftmost, with y down.
+   */
+  static void orderCorners(Point[] tape) {
+    int top = 0;
+    for (int i = 1; i < 4; i++) {
+      if (tape[i].y < tape[top].y) {
+        top = i;
+      }
+    }
+    // the corners of a rectangle are in order around it, so rotate the top one first
+    Point[] rotated = {tape[top], tape[(top + 1) % 4], tape[(top + 2) % 4], tape[(top + 3) % 4]};
+    // with y down, the next corner is rightmost if the order is clockwise on screen
+    if (rotated[1].x < rotated[3].x) {
+      Point swap = rotated[1];
+      rotated[1] = rotated[3];
+      rotated[3] = swap;
+    }
+    System.arraycopy(rotated, 0, tape, 0, 4);
+  }
+
+  public CameraModel getModel() {
+    return model;
+  }
+
+  /**
+   * Releases the native buffers.
+   */
+  public void release() {
+    cameraMatrix.release();
+    if (distortion != null) {
+      distortion.release();
+    }
+    identity.release();
+    noDistortion.release();
+    objectPoints.release();
+    imagePoints.release();
+    normalizedPoints.release();
+    rvec.release();
+    tvec.release();
+  }
+}
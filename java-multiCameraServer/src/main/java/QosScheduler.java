@@ -0,0 +1,190 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableEntry;
+
+/**
+ * Trades work for freshness when the cameras cannot keep up, so the capture
+ * to publish latency stays within a budget.
+ *
+ * <p>The latency of every published frame is collected per camera over a
+ * short window. A window whose worst frame is over the budget degrades the
+ * camera one level; a few windows in a row well under the budget restore
+ * one level. The camera the robot aims with, named by the
+ * {@code VisionTarget/priority camera} entry (the first camera by default),
+ * is protected: while it is over budget the other cameras are degraded
+ * first, and they only recover while it is at full quality and under
+ * budget.
+ *
+ * <p>The levels of the priority camera are, in order: a box blur instead
+ * of the configured blur, a coarse pass on a downscaled frame (pyramid
+ * level 1), then processing only every second, third, ... frame. Other
+ * cameras keep their settings and only run less often. Called only from the
+ * publish stage.
+ */
+public class QosScheduler {
+  public static final int kMaxLevel = 5;
+
+  private static final int kWindowFrames = 15;
+  private static final double kRecoverFraction = 0.6;
+  private static final int kRecoverWindows = 3;
+
+  /**
+   * The latency window and level of one camera.
+   */
+  private static final class State {
+    final CameraVision camera;
+    // also read by the metrics thread
+    volatile int level;
+    int frames;
+    long maxLatency;
+    long lastMaxLatency;
+    int calmWindows;
+
+    State(CameraVision camera) {
+      this.camera = camera;
+    }
+  }
+
+  private final long budgetMicros;
+  private final NetworkTableEntry priorityEntry;
+  private final List<State> states = new ArrayList<>();
+  private String priority = "";
+
+  /**
+   * Create a scheduler.
+   * @param rootTable the table with the "priority camera" entry
+   * @param budgetMillis the capture to publish latency budget, 0 to never degrade
+   */
+  public QosScheduler(NetworkTable rootTable, double budgetMillis) {
+    this.budgetMicros = (long) (budgetMillis * 1000);
+    this.priorityEntry = rootTable.getEntry("priority camera");
+  }
+
+  /**
+   * Add a camera. The first one is the priority camera by default.
+   */
+  public void addCamera(CameraVision camera) {
+    if (states.isEmpty()) {
+      priorityEntry.setDefaultString(camera.getName());
+    }
+    states.add(new State(camera));
+  }
+
+  /**
+   * Record the latency of a published frame.
+   * @param camera the camera of the frame
+   * @param latencyMicros the capture to publish latency
+   */
+  public void record(CameraVision camera, long latencyMicros) {
+    if (budgetMicros <= 0) {
+      return;
+    }
+    State state = state(camera);
+    state.maxLatency = Math.max(state.maxLatency, latencyMicros);
+    if (++state.frames < kWindowFrames) {
+      return;
+    }
+    long maxLatency = state.maxLatency;
+    state.lastMaxLatency = maxLatency;
+    state.frames = 0;
+    state.maxLatency = 0;
+
+    String name = priorityEntry.getString(priority);
+    if (!name.equals(priority)) {
+      // the roles changed, so do the settings of the levels
+      priority = name;
+      for (State other : states) {
+        apply(other);
+      }
+    }
+
+    if (maxLatency > budgetMicros) {
+      state.calmWindows = 0;
+      degrade(state);
+    } else if (maxLatency < kRecoverFraction * budgetMicros) {
+      if (++state.calmWindows >= kRecoverWindows) {
+        state.calmWindows = 0;
+        recover(state);
+      }
+    } else {
+      state.calmWindows = 0;
+    }
+  }
+
+  /**
+   * The current level of a camera, 0 for full quality.
+   */
+  public int getLevel(CameraVision camera) {
+    return state(camera).level;
+  }
+
+  private void degrade(State state) {
+    if (isPriority(state)) {
+      boolean degraded = false;
+      for (State other : states) {
+        if (other != state && other.level < kMaxLevel) {
+          setLevel(other, other.level + 1);
+          degraded = true;
+        }
+      }
+      if (degraded) {
+        return;
+      }
+    }
+    if (state.level < kMaxLevel) {
+      setLevel(state, state.level + 1);
+    }
+  }
+
+  private void recover(State state) {
+    if (state.level == 0) {
+      return;
+    }
+    State priorityState = priorityState();
+    if (!isPriority(state) && priorityState != null && (priorityState.level > 0
+        || priorityState.lastMaxLatency >= kRecoverFraction * budgetMicros)) {
+      return;
+    }
+    setLevel(state, state.level - 1);
+  }
+
+  private void setLevel(State state, int level) {
+    state.level = level;
+    apply(state);
+  }
+
+  /**
+   * Set a camera to the work of its level and role.
+   */
+  private void apply(State state) {
+    if (isPriority(state) || priorityState() == null) {
+      state.camera.setQos(state.level >= 1, state.level >= 2, Math.max(1, state.level - 1));
+    } else {
+      state.camera.setQos(false, false, state.level + 1);
+    }
+  }
+
+  private boolean isPriority(State state) {
+    return state.camera.getName().equals(priority);
+  }
+
+  private State priorityState() {
+    for (State state : states) {
+      if (isPriority(state)) {
+        return state;
+      }
+    }
+    return null;
+  }
+
+  private State state(CameraVision camera) {
+    for (State state : states) {
+      if (state.camera == camera) {
+        return state;
+      }
+    }
+    throw new IllegalArgumentException("camera '" + camera.getName() + "' was not added");
+  }
+}
@@ -0,0 +1,158 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+
+/**
+ * Runs the pipeline offline over a directory of images or a video file and
+ * writes the targets found in every frame, so detections can be checked
+ * after tuning changes and field problems reproduced without a camera.
+ *
+ * <pre>
+ *   java -cp java-multiCameraServer-all.jar Replay &lt;frames&gt; &lt;output&gt; [--realtime] [--fps N] [--config file] [--detector name]
+ * </pre>
+ *
+ * <p>By default frames are processed as fast as possible and the throughput
+ * is reported; with {@code --realtime} they are paced at their capture times
+ * like a live camera. {@code --fps} sets the frame rate of image
+ * directories (default 30). {@code --config} reads pipeline settings from a
+ * JSON file, either a frc.json with a "pipeline" section or just the
+ * settings object. {@code --detector} selects the tape detector like the
+ * camera "detector" setting, so the backends can be compared on the same
+ * frames.
+ *
+ * <p>The output has one line per frame, so two runs can be compared with
+ * diff:
+ * <pre>
+ *   &lt;frame&gt; &lt;time us&gt; &lt;targets&gt; [&lt;xOffset&gt; &lt;distance&gt; &lt;angle&gt;]...
+ * </pre>
+ */
+public final class Replay {
+  static {
+    System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+  }
+
+  private Replay() {
+  }
+
+  private static void usage() {
+    System.err.println("usage: Replay <frames> <output> [--realtime] [--fps N] [--config file]"
+        + " [--detector name]");
+    System.exit(2);
+  }
+
+  /**
+   * Main.
+   */
+  public static void main(String... args) throws IOException, InterruptedException {
+    if (args.length < 2) {
+      usage();
+    }
+    boolean realTime = false;
+    double fps = 30;
+    PipelineConfig config = PipelineConfig.kDefault;
+    String detector = "contours";
+    for (int i = 2; i < args.length; i++) {
+      if ("--realtime".equals(args[i])) {
+        realTime = true;
+      } else if ("--fps".equals(args[i]) && i + 1 < args.length) {
+        fps = Double.parseDouble(args[++i]);
+      } else if ("--config".equals(args[i]) && i + 1 < args.length) {
+        config = readConfig(args[++i]);
+      } else if ("--detector".equals(args[i]) && i + 1 < args.length) {
+        detector = args[++i];
+      } else {
+        usage();
+      }
+    }
+
+    FrameSource source;
+    TapeDetector pipeline;
+    try {
+      pipeline = TapeDetector.create(detector, config);
+      source = FrameSource.open(new File(args[0]), fps);
+    } catch (IllegalArgumentException ex) {
+      System.err.println(ex.getMessage());
+      System.exit(1);
+      return;
+    }
+
+    TargetFinder finder = new TargetFinder(pipeline);
+    LatencyHistogram latency = new LatencyHistogram();
+    Mat frame = new Mat();
+    CameraModel model = null;
+    long frames = 0;
+    long targets = 0;
+    long start = System.nanoTime();
+
+    try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(args[1])))) {
+      long frameTime;
+      while ((frameTime = source.grabFrame(frame)) >= 0) {
+        if (realTime) {
+          long wait = frameTime / 1000 - (System.nanoTime() - start) / 1000000;
+          if (wait > 0) {
+            Thread.sleep(wait);
+          }
+        }
+
+        if (model == null) {
+          model = new CameraModel(frame.cols(), frame.rows(), CameraModel.kDefaultFov);
+        }
+
+        long processStart = System.nanoTime();
+        List<GoalTarget> found = finder.findTargets(frame);
+        latency.recordNanos(System.nanoTime() - processStart);
+
+        out.print(frames);
+        out.print(' ');
+        out.print(frameTime);
+        out.print(' ');
+        out.print(found.size());
+        for (GoalTarget target : found) {
+          out.print(String.format(Locale.ROOT, " %.4f %.4f %.4f",
+              model.xOffset(target.targetWidth(), target.centerX()),
+              model.distance(target.targetWidth(), target.centerX()),
+              model.horizontalAngle(target.centerX())));
+        }
+        out.println();
+        frames++;
+        targets += found.size();
+      }
+    } finally {
+      source.close();
+      finder.release();
+      frame.release();
+    }
+
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.println(String.format("%s: %d frames, %d targets, %.1f fps", source.getName(),
+        frames, targets, frames / seconds));
+    System.out.println(String.format("process p50 %.2f ms, p95 %.2f ms, p99 %.2f ms, max %.2f ms",
+        latency.percentileMicros(50) / 1000.0, latency.percentileMicros(95) / 1000.0,
+        latency.percentileMicros(99) / 1000.0, latency.maxMicros() / 1000.0));
+  }
+
+  private static PipelineConfig readConfig(String file) throws IOException {
+    JsonObject obj = new JsonParser().parse(Files.newBufferedReader(Paths.get(file)))
+        .getAsJsonObject();
+    if (obj.has("pipeline")) {
+      obj = obj.get("pipeline").getAsJsonObject();
+    }
+    try {
+      return PipelineConfig.kDefault.with(obj);
+    } catch (IllegalArgumentException ex) {
+      System.err.println("'" + file + "': " + ex.getMessage());
+      System.exit(1);
+      return null;
+    }
+  }
+}
@@ -0,0 +1,248 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableEntry;
+
+/**
+ * Writes the results of a camera's frames to NetworkTables.
+ *
+ * <p>Each frame is packed into the single raw entry "results", so the robot
+ * always reads the values of one frame together. The layout, big endian:
+ * <pre>
+ *   offset  size  value
+ *   0       1     layout version, currently 2
+ *   1       1     number of detected targets R
+ *   2       1     number of tracked targets T
+ *   3       1     flags, bit 0: the detected targets include their pose
+ *   4       8     frame id, increasing
+ *   12      8     capture time, microseconds in the NetworkTables time base
+ *   20      12*R  per detected target, float32: xOffset, distance, angle,
+ *       or 36*R   with the pose also: x, y, z, and the rotation vector
+ *                 (see {@link PoseEstimator})
+ *   ..      32*T  per tracked target: int32 id, int32 frames missed, then
+ *                 float32: xOffset, distance, angle, and their rates per second
+ * </pre>
+ * Version 1 was the same without the pose, the flags byte was always 0.
+ *
+ * <p>A frame whose values all equal the last published ones within the
+ * tolerance is not published, unless the last publish is older than
+ * {@link #kMaxSkipMicros}, so the robot can still tell the results are
+ * current. NetworkTables is flushed after every published frame instead of
+ * waiting for its periodic update.
+ *
+ * <p>In compatibility mode the separate "timestamp", "xOffset", "distance",
+ * "angle", "pose" and "track*" entries are written as well.
+ */
+public class ResultPublisher {
+  public static final int kVersion = 2;
+  public static final int kFlagPose = 1;
+  public static final long kMaxSkipMicros = 100000;
+
+  private static final int kHeaderBytes = 20;
+  private static final int kTargetBytes = 12;
+  private static final int kPoseBytes = 4 * PoseEstimator.kPoseValues;
+  private static final int kTrackBytes = 32;
+  private static final int kMaxTargets = 255;
+
+  private final NetworkTable table;
+  private final NetworkTable mirrorTable;
+  private final NetworkTableEntry entry;
+  private final NetworkTableEntry mirrorEntry;
+  private final double tolerance;
+  private final boolean legacyEntries;
+
+  private ByteBuffer buffer = ByteBuffer.allocateDirect(kHeaderBytes).order(ByteOrder.BIG_ENDIAN);
+  // the values of the last published frame, for the change check
+  private int lastTargets = -1;
+  private int lastTracks = -1;
+  private boolean lastPose;
+  private double[] lastValues = new double[0];
+  private long lastPublishTime;
+
+  /**
+   * Create a publisher.
+   * @param table the table results are published to
+   * @param mirrorTable an additional table the results are copied to, or null
+   * @param tolerance the largest change of any value that is not published
+   * @param legacyEntries also write the separate entries of the old layout
+   */
+  public ResultPublisher(NetworkTable table, NetworkTable mirrorTable, double tolerance,
+      boolean legacyEntries) {
+    this.table = table;
+    this.mirrorTable = mirrorTable;
+    this.entry = table.getEntry("results");
+    this.mirrorEntry = mirrorTable != null ? mirrorTable.getEntry("results") : null;
+    this.tolerance = tolerance;
+    this.legacyEntries = legacyEntries;
+  }
+
+  /**
+   * Publish a frame unless it is unchanged.
+   * @param result the detected targets of the frame
+   * @param tracker the tracks after the frame
+   * @return false if the frame was skipped
+   */
+  public boolean publish(FrameResult result, TargetTracker tracker) {
+    int targets = Math.min(result.count, kMaxTargets);
+    int tracks = tracker.count;
+    if (unchanged(result, targets, tracker)
+        && result.frameTime - lastPublishTime < kMaxSkipMicros) {
+      return false;
+    }
+    remember(result, targets, tracker);
+    lastPublishTime = result.frameTime;
+
+    int targetBytes = result.hasPose ? kTargetBytes + kPoseBytes : kTargetBytes;
+    int length = kHeaderBytes + targetBytes * targets + kTrackBytes * tracks;
+    if (buffer.capacity() < length) {
+      buffer = ByteBuffer.allocateDirect(2 * length).order(ByteOrder.BIG_ENDIAN);
+    }
+    buffer.clear();
+    buffer.put((byte) kVersion);
+    buffer.put((byte) targets);
+    buffer.put((byte) tracks);
+    buffer.put((byte) (result.hasPose ? kFlagPose : 0));
+    buffer.putLong(result.frameId);
+    buffer.putLong(result.frameTime);
+    for (int i = 0; i < targets; i++) {
+      buffer.putFloat((float) result.xOffset[i]);
+      buffer.putFloat((float) result.distance[i]);
+      buffer.putFloat((float) result.angle[i]);
+      if (result.hasPose) {
+        for (int value = 0; value < PoseEstimator.kPoseValues; value++) {
+          buffer.putFloat((float) result.pose[PoseEstimator.kPoseValues * i + value]);
+        }
+      }
+    }
+    for (int i = 0; i < tracks; i++) {
+      buffer.putInt((int) tracker.id[i]);
+      buffer.putInt((int) tracker.missed[i]);
+      buffer.putFloat((float) tracker.xOffset[i]);
+      buffer.putFloat((float) tracker.distance[i]);
+      buffer.putFloat((float) tracker.angle[i]);
+      buffer.putFloat((float) tracker.xOffsetRate[i]);
+      buffer.putFloat((float) tracker.distanceRate[i]);
+      buffer.putFloat((float) tracker.angleRate[i]);
+    }
+
+    entry.setRaw(buffer, length);
+    if (mirrorEntry != null) {
+      mirrorEntry.setRaw(buffer, length);
+    }
+    if (legacyEntries) {
+      double[] xOffset = Arrays.copyOf(result.xOffset, result.count);
+      double[] distance = Arrays.copyOf(result.distance, result.count);
+      double[] angle = Arrays.copyOf(result.angle, result.count);
+      double[] pose = result.hasPose
+          ? Arrays.copyOf(result.pose, PoseEstimator.kPoseValues * result.count) : new double[0];
+      WriteRoiToNetworkTable(table, result.frameTime, xOffset, distance, angle);
+      table.getEntry("pose").setDoubleArray(pose);
+      writeTracks(table, tracker);
+      if (mirrorTable != null) {
+        WriteRoiToNetworkTable(mirrorTable, result.frameTime, xOffset, distance, angle);
+        mirrorTable.getEntry("pose").setDoubleArray(pose);
+        writeTracks(mirrorTable, tracker);
+      }
+    }
+    table.getInstance().flush();
+    return true;
+  }
+
+  /**
+   * Whether the target counts, track ids and every value are the same as in
+   * the last published frame, within the tolerance.
+   */
+  private boolean unchanged(FrameResult result, int targets, TargetTracker tracker) {
+    if (targets != lastTargets || tracker.count != lastTracks || result.hasPose != lastPose) {
+      return false;
+    }
+    int index = 0;
+    for (int i = 0; i < targets; i++) {
+      if (changed(result.xOffset[i], index++) || changed(result.distance[i], index++)
+          || changed(result.angle[i], index++)) {
+        return false;
+      }
+      if (result.hasPose) {
+        for (int value = 0; value < PoseEstimator.kPoseValues; value++) {
+          if (changed(result.pose[PoseEstimator.kPoseValues * i + value], index++)) {
+            return false;
+          }
+        }
+      }
+    }
+    for (int i = 0; i < tracker.count; i++) {
+      if (tracker.id[i] != lastValues[index++] || tracker.missed[i] != lastValues[index++]
+          || changed(tracker.xOffset[i], index++) || changed(tracker.distance[i], index++)
+          || changed(tracker.angle[i], index++)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean changed(double value, int index) {
+    // NaN never equals, so a NaN value is always published
+    return !(Math.abs(value - lastValues[index]) <= tolerance);
+  }
+
+  private void remember(FrameResult result, int targets, TargetTracker tracker) {
+    lastTargets = targets;
+    lastTracks = tracker.count;
+    lastPose = result.hasPose;
+    int perTarget = result.hasPose ? 3 + PoseEstimator.kPoseValues : 3;
+    int length = perTarget * targets + 5 * tracker.count;
+    if (lastValues.length < length) {
+      lastValues = new double[2 * length];
+    }
+    int index = 0;
+    for (int i = 0; i < targets; i++) {
+      lastValues[index++] = result.xOffset[i];
+      lastValues[index++] = result.distance[i];
+      lastValues[index++] = result.angle[i];
+      if (result.hasPose) {
+        for (int value = 0; value < PoseEstimator.kPoseValues; value++) {
+          lastValues[index++] = result.pose[PoseEstimator.kPoseValues * i + value];
+        }
+      }
+    }
+    for (int i = 0; i < tracker.count; i++) {
+      lastValues[index++] = tracker.id[i];
+      lastValues[index++] = tracker.missed[i];
+      lastValues[index++] = tracker.xOffset[i];
+      lastValues[index++] = tracker.distance[i];
+      lastValues[index++] = tracker.angle[i];
+    }
+  }
+
+  /**
+   * Write the tracked targets: a stable id per target, the filtered values,
+   * their rates per second for extrapolating from "timestamp", and the
+   * number of frames each target has not been seen and is only predicted.
+   */
+  private static void writeTracks(NetworkTable table, TargetTracker tracker) {
+    int count = tracker.count;
+    table.getEntry("trackId").setDoubleArray(Arrays.copyOf(tracker.id, count));
+    table.getEntry("trackMissed").setDoubleArray(Arrays.copyOf(tracker.missed, count));
+    table.getEntry("trackXOffset").setDoubleArray(Arrays.copyOf(tracker.xOffset, count));
+    table.getEntry("trackDistance").setDoubleArray(Arrays.copyOf(tracker.distance, count));
+    table.getEntry("trackAngle").setDoubleArray(Arrays.copyOf(tracker.angle, count));
+    table.getEntry("trackXOffsetRate").setDoubleArray(Arrays.copyOf(tracker.xOffsetRate, count));
+    table.getEntry("trackDistanceRate").setDoubleArray(Arrays.copyOf(tracker.distanceRate, count));
+    table.getEntry("trackAngleRate").setDoubleArray(Arrays.copyOf(tracker.angleRate, count));
+  }
+
+  private static void WriteRoiToNetworkTable(NetworkTable table, long frameTime, double[] xOffset, double[] distance, double[]angle)
+  {
+    try {
+      // capture time of the frame, in the NetworkTables time base (microseconds)
+      table.getEntry("timestamp").setDouble(frameTime);
+      table.getEntry("xOffset").setDoubleArray(xOffset);
+      table.getEntry("distance").setDoubleArray(distance);
+      table.getEntry("angle").setDoubleArray(angle);
+    } catch (Exception e) {
+      System.out.println("Exception writing NT");
+    }
+  }
+}
@@ -0,0 +1,100 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.RotatedRect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Test frames for the offline tools: synthetic frames with tape pairs drawn
+ * on a noisy background, or recorded frames loaded from a directory.
+ */
+public final class SyntheticFrames {
+  // lit tape as seen through the green ring light, inside the pipeline's HSL bounds
+  private static final Scalar kTapeColor = new Scalar(200, 255, 120);
+  private static final double kTapeTilt = 14.5;
+
+  static {
+    System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+  }
+
+  private SyntheticFrames() {
+  }
+
+  /**
+   * Generate a frame with a number of tape pairs and some background noise.
+   * @param width the frame width
+   * @param height the frame height
+   * @param pairs the number of tape pairs to draw
+   * @param seed the random seed, so frames are reproducible
+   */
+  public static Mat generate(int width, int height, int pairs, long seed) {
+    Random random = new Random(seed);
+    Mat frame = new Mat(height, width, CvType.CV_8UC3, new Scalar(30, 30, 30));
+    Mat noise = new Mat(height, width, CvType.CV_8UC3);
+    Core.randu(noise, 0, 25);
+    Core.add(frame, noise, frame);
+    noise.release();
+
+    double scale = width / 320.0;
+    Size tapeSize = new Size(10 * scale, 28 * scale);
+    for (int i = 0; i < pairs; i++) {
+      double spacing = (40 + random.nextInt(60)) * scale;
+      double x = tapeSize.height + random.nextDouble() * (width - spacing - 2 * tapeSize.height);
+      double y = tapeSize.height + random.nextDouble() * (height - 2 * tapeSize.height);
+      drawTape(frame, new RotatedRect(new Point(x, y), tapeSize, kTapeTilt));
+      drawTape(frame, new RotatedRect(new Point(x + spacing, y), tapeSize, -kTapeTilt));
+    }
+    return frame;
+  }
+
+  /**
+   * Generate a set of frames with one to three tape pairs each.
+   */
+  public static List<Mat> generateSet(int width, int height, int count) {
+    List<Mat> frames = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      frames.add(generate(width, height, 1 + i % 3, i));
+    }
+    return frames;
+  }
+
+  /**
+   * Load every image in a directory, in file name order.
+   */
+  public static List<Mat> load(File directory) {
+    List<Mat> frames = new ArrayList<>();
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return frames;
+    }
+    Arrays.sort(files);
+    for (File file : files) {
+      Mat frame = Imgcodecs.imread(file.getPath());
+      if (frame.empty()) {
+        frame.release();
+        continue;
+      }
+      frames.add(frame);
+    }
+    return frames;
+  }
+
+  private static void drawTape(Mat frame, RotatedRect tape) {
+    Point[] corners = new Point[4];
+    tape.points(corners);
+    MatOfPoint polygon = new MatOfPoint(corners);
+    Imgproc.fillConvexPoly(frame, polygon, kTapeColor);
+    polygon.release();
+  }
+}
@@ -0,0 +1,82 @@
+import java.util.List;
+
+import edu.wpi.first.vision.VisionPipeline;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.RotatedRect;
+
+/**
+ * A backend that finds the single tapes in a frame, for {@link TargetFinder}
+ * to pair into goal targets.
+ *
+ * <p>A detector is used by one thread at a time, except for
+ * {@link #setConfig}, and reuses its buffers between frames.
+ */
+public interface TapeDetector extends VisionPipeline {
+  /**
+   * Add the tapes found by the last {@link #process} call, in frame
+   * coordinates and in the minAreaRect angle convention.
+   */
+  void tapes(List<RotatedRect> tapes);
+
+  /**
+   * The binary mask of the last frame, of the search window if one was set.
+   */
+  Mat maskOutput();
+
+  /**
+   * Replaces the pipeline parameters. Safe to call from any thread; the new
+   * parameters are picked up at the start of the next frame.
+   */
+  void setConfig(PipelineConfig config);
+
+  PipelineConfig getConfig();
+
+  /**
+   * Restricts the following frames to a window of the source image, e.g.
+   * around the last known target. Tapes are still reported in full frame
+   * coordinates.
+   * @param window the window to search, or null to search the full frame
+   */
+  void setSearchWindow(Rect window);
+
+  Rect getSearchWindow();
+
+  /**
+   * The nanoseconds spent in each step since the last clearStageNanos(),
+   * indexed by PipelineMetrics.Stage ordinal. Callers may add their own steps.
+   */
+  long[] stageNanos();
+
+  /**
+   * The number of candidates rejected since the last clearStageNanos(),
+   * indexed by PipelineMetrics.Rejection ordinal.
+   */
+  long[] rejections();
+
+  void clearStageNanos();
+
+  /**
+   * Releases the native memory held by the detector. It must not be used
+   * afterwards.
+   */
+  void release();
+
+  /**
+   * Create a detector by its name in frc.json.
+   * @param name "contours" for the GRIP contour pipeline, "components" for
+   *     the connected components backend
+   * @param config the initial pipeline settings
+   * @throws IllegalArgumentException if the name is unknown
+   */
+  static TapeDetector create(String name, PipelineConfig config) {
+    if ("contours".equalsIgnoreCase(name)) {
+      return new CardinalPipeline(config);
+    }
+    if ("components".equalsIgnoreCase(name)) {
+      return new ComponentsDetector(config);
+    }
+    throw new IllegalArgumentException("detector must be \"contours\" or \"components\"");
+  }
+}
@@ -0,0 +1,187 @@
+import java.util.Arrays;
+import java.util.List;
+
+import org.opencv.core.RotatedRect;
+
+/**
+ * Pairs single tapes into goal targets.
+ *
+ * <p>The tapes are copied into primitive arrays and sorted by center x once.
+ * Every tape leaning like a left tape is then swept against the right tapes
+ * that follow it within the largest plausible spacing, and each candidate
+ * pair is scored on how well the two tapes mirror each other's angle, how
+ * similar their lengths are, how level they are and how their spacing
+ * compares to the tape length. The best scoring pairs are taken first, and a
+ * pair is only accepted if neither tape is used yet and it does not overlap
+ * an accepted target, so clutter cannot produce crossing or nested targets.
+ *
+ * <p>All buffers are reused between frames.
+ */
+public class TapePairing {
+  // minAreaRect angles are in [-90, 0): a left tape leans one way, a right tape the other
+  private static final double kLeftMinAngle = -100;
+  private static final double kLeftMaxAngle = -45;
+  private static final double kRightMinAngle = -40;
+  private static final double kRightMaxAngle = 0;
+  // center spacing of the 2019 tapes over the tape length, 11.375 in / 5.5 in
+  private static final double kSpacingRatio = 2.07;
+  private static final double kMaxSpacingRatio = 2 * kSpacingRatio;
+  // the score of a pair is the sum of its relative errors, pairs above this are ignored
+  private static final double kMaxScore = 2.0;
+
+  private int count;
+  private double[] centerX = new double[0];
+  private double[] centerY = new double[0];
+  private double[] angle = new double[0];
+  private double[] length = new double[0];
+  private long[] order = new long[0];
+  private boolean[] used = new boolean[0];
+
+  private int candidates;
+  private int[] candidateLeft = new int[0];
+  private int[] candidateRight = new int[0];
+  private long[] candidateOrder = new long[0];
+
+  private int accepted;
+  private long[] acceptedOrder = new long[0];
+
+  /**
+   * Pair tapes into goal targets.
+   * @param tapes the rotated rectangles of the tapes, in any order
+   * @param targets the list the targets are added to, sorted from left to right
+   */
+  public void pair(List<RotatedRect> tapes, List<GoalTarget> targets) {
+    load(tapes);
+    findCandidates();
+    selectPairs();
+
+    for (int index = 0; index < accepted; index++) {
+      int pair = (int) acceptedOrder[index];
+      targets.add(new GoalTarget(tapes.get(candidateLeft[pair]), tapes.get(candidateRight[pair])));
+    }
+  }
+
+  private void load(List<RotatedRect> tapes) {
+    count = tapes.size();
+    if (centerX.length < count) {
+      int capacity = Math.max(count, 2 * centerX.length);
+      centerX = new double[capacity];
+      centerY = new double[capacity];
+      angle = new double[capacity];
+      length = new double[capacity];
+      order = new long[capacity];
+      used = new boolean[capacity];
+    }
+    for (int index = 0; index < count; index++) {
+      RotatedRect tape = tapes.get(index);
+      centerX[index] = tape.center.x;
+      centerY[index] = tape.center.y;
+      angle[index] = tape.angle;
+      length[index] = Math.max(tape.size.width, tape.size.height);
+      order[index] = sortKey(tape.center.x, index);
+      used[index] = false;
+    }
+    Arrays.sort(order, 0, count);
+  }
+
+  /**
+   * Sweep every left tape against the right tapes after it in x.
+   */
+  private void findCandidates() {
+    candidates = 0;
+    for (int i = 0; i < count; i++) {
+      int left = (int) order[i];
+      if (angle[left] <= kLeftMinAngle || angle[left] >= kLeftMaxAngle) {
+        continue;
+      }
+      double maxX = centerX[left] + kMaxSpacingRatio * length[left];
+      for (int j = i + 1; j < count; j++) {
+        int right = (int) order[j];
+        if (centerX[right] > maxX) {
+          break;
+        }
+        if (angle[right] <= kRightMinAngle || angle[right] >= kRightMaxAngle) {
+          continue;
+        }
+        double score = score(left, right);
+        if (score < kMaxScore) {
+          addCandidate(left, right, score);
+        }
+      }
+    }
+  }
+
+  /**
+   * The sum of the relative errors of a pair, 0 for a perfect target.
+   */
+  private double score(int left, int right) {
+    double meanLength = (length[left] + length[right]) / 2;
+    if (meanLength <= 0) {
+      return Double.POSITIVE_INFINITY;
+    }
+    // mirrored tapes have angles adding up to -90
+    double angleError = Math.abs(angle[left] + angle[right] + 90) / 45;
+    double lengthError = Math.abs(length[left] - length[right]) / meanLength;
+    double levelError = Math.abs(centerY[left] - centerY[right]) / meanLength;
+    double spacing = (centerX[right] - centerX[left]) / meanLength;
+    double spacingError = Math.abs(spacing - kSpacingRatio) / kSpacingRatio;
+    return angleError + lengthError + levelError + spacingError;
+  }
+
+  private void addCandidate(int left, int right, double score) {
+    if (candidates == candidateLeft.length) {
+      int capacity = Math.max(16, 2 * candidates);
+      candidateLeft = Arrays.copyOf(candidateLeft, capacity);
+      candidateRight = Arrays.copyOf(candidateRight, capacity);
+      candidateOrder = Arrays.copyOf(candidateOrder, capacity);
+    }
+    candidateLeft[candidates] = left;
+    candidateRight[candidates] = right;
+    candidateOrder[candidates] = sortKey(score, candidates);
+    candidates++;
+  }
+
+  /**
+   * Accept the best pairs that share no tape and do not overlap, then order
+   * the accepted pairs from left to right.
+   */
+  private void selectPairs() {
+    Arrays.sort(candidateOrder, 0, candidates);
+    if (acceptedOrder.length < candidates) {
+      acceptedOrder = new long[candidateOrder.length];
+    }
+    accepted = 0;
+    for (int index = 0; index < candidates; index++) {
+      int pair = (int) candidateOrder[index];
+      int left = candidateLeft[pair];
+      int right = candidateRight[pair];
+      if (used[left] || used[right] || overlapsAccepted(left, right)) {
+        continue;
+      }
+      used[left] = true;
+      used[right] = true;
+      acceptedOrder[accepted++] = sortKey(centerX[left], pair);
+    }
+    Arrays.sort(acceptedOrder, 0, accepted);
+  }
+
+  private boolean overlapsAccepted(int left, int right) {
+    for (int index = 0; index < accepted; index++) {
+      int pair = (int) acceptedOrder[index];
+      if (centerX[left] < centerX[candidateRight[pair]]
+          && centerX[candidateLeft[pair]] < centerX[right]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * A key that sorts by a non-negative value and then by index, with the
+   * index in the low 32 bits. The bits of a non-negative float order the
+   * same as its value.
+   */
+  private static long sortKey(double value, int index) {
+    return ((long) Float.floatToIntBits((float) Math.max(0, value)) << 32) | index;
+  }
+}
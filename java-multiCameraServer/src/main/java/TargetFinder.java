@@ -0,0 +1,153 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.RotatedRect;
+
+/**
+ * Runs a tape detector on a frame and pairs the tapes into goal targets.
+ *
+ * <p>The finder reuses its lists and scratch buffers between frames, so the
+ * returned list is only valid until the next call to {@link #findTargets}.
+ *
+ * <p>With tracking enabled, once a target has been found the next frames are
+ * only searched in a window around it. If the target is lost inside the
+ * window, the same frame is searched again in full.
+ */
+public class TargetFinder {
+  private static final double kMaxWindowFraction = 0.6;
+
+  private final TapeDetector pipeline;
+  private final TapePairing pairing = new TapePairing();
+
+  private final ArrayList<RotatedRect> individualTapeTargets = new ArrayList<>();
+  private final ArrayList<GoalTarget> fullTapeTargets = new ArrayList<>();
+
+  public TargetFinder(TapeDetector pipeline) {
+    this.pipeline = pipeline;
+  }
+
+  public TapeDetector getPipeline() {
+    return pipeline;
+  }
+
+  /**
+   * The single tapes found in the last frame, paired or not. Valid until the
+   * next call to {@link #findTargets}.
+   */
+  public List<RotatedRect> tapes() {
+    return individualTapeTargets;
+  }
+
+  /**
+   * The number of single tapes found in the last frame, paired or not.
+   */
+  public int tapeCount() {
+    return individualTapeTargets.size();
+  }
+
+  /**
+   * Find the goal targets in a frame. The time spent in each step is left in
+   * the pipeline's stageNanos().
+   * @param frame the BGR frame to process
+   * @return the targets, sorted from left to right
+   */
+  public ArrayList<GoalTarget> findTargets(Mat frame) {
+    pipeline.clearStageNanos();
+    pipeline.process(frame);
+    pairTargets();
+
+    PipelineConfig config = pipeline.getConfig();
+    if (!config.tracking) {
+      pipeline.setSearchWindow(null);
+      return fullTapeTargets;
+    }
+
+    // target lost inside the window, search the full frame again right away
+    if (fullTapeTargets.isEmpty() && pipeline.getSearchWindow() != null) {
+      pipeline.setSearchWindow(null);
+      pipeline.process(frame);
+      pairTargets();
+    }
+    pipeline.setSearchWindow(trackingWindow(config, frame.cols(), frame.rows()));
+
+    return fullTapeTargets;
+  }
+
+  /**
+   * The window to search in the next frame: the box around all targets grown
+   * by the motion margin, or null to search the full frame.
+   */
+  private Rect trackingWindow(PipelineConfig config, int frameWidth, int frameHeight) {
+    if (fullTapeTargets.isEmpty()) {
+      return null;
+    }
+    Rect box = fullTapeTargets.get(0).boundingRect();
+    int left = box.x;
+    int top = box.y;
+    int right = box.x + box.width;
+    int bottom = box.y + box.height;
+    for (int index = 1; index < fullTapeTargets.size(); index++) {
+      box = fullTapeTargets.get(index).boundingRect();
+      left = Math.min(left, box.x);
+      top = Math.min(top, box.y);
+      right = Math.max(right, box.x + box.width);
+      bottom = Math.max(bottom, box.y + box.height);
+    }
+
+    return trackingWindow(config, new Rect(left, top, right - left, bottom - top), frameWidth,
+        frameHeight);
+  }
+
+  /**
+   * The window to search around a box: the box grown by the motion margin on
+   * every side and cut to the frame, or null to search the full frame.
+   */
+  static Rect trackingWindow(PipelineConfig config, Rect box, int frameWidth, int frameHeight) {
+    int marginX = Math.max(config.trackingMinMargin, (int) (box.width * config.trackingMargin));
+    int marginY = Math.max(config.trackingMinMargin, (int) (box.height * config.trackingMargin));
+    int x0 = Math.max(0, box.x - marginX);
+    int y0 = Math.max(0, box.y - marginY);
+    int x1 = Math.min(frameWidth, box.x + box.width + marginX);
+    int y1 = Math.min(frameHeight, box.y + box.height + marginY);
+    // round the size up to limit reallocation of the pipeline outputs as the window moves
+    int width = Math.min(frameWidth - x0, roundUp(x1 - x0));
+    int height = Math.min(frameHeight - y0, roundUp(y1 - y0));
+
+    // not worth cropping if the window is most of the frame anyway
+    if (width * height > kMaxWindowFraction * frameWidth * frameHeight) {
+      return null;
+    }
+    return new Rect(x0, y0, width, height);
+  }
+
+  private static int roundUp(int size) {
+    return (size + 15) & ~15;
+  }
+
+  /**
+   * Get the detector's tapes and pair them into goal targets.
+   * @return the targets, sorted from left to right
+   */
+  ArrayList<GoalTarget> pairTargets() {
+    long start = System.nanoTime();
+    individualTapeTargets.clear();
+
+    //adds targets to individual targets
+    pipeline.tapes(individualTapeTargets);
+
+    //Finds the grouping of vision targets
+    fullTapeTargets.clear();
+    pairing.pair(individualTapeTargets, fullTapeTargets);
+    pipeline.stageNanos()[PipelineMetrics.Stage.PAIRING.ordinal()] += System.nanoTime() - start;
+    return fullTapeTargets;
+  }
+
+  /**
+   * Releases the native memory held by the finder and its pipeline.
+   */
+  public void release() {
+    pipeline.release();
+  }
+}
@@ -0,0 +1,230 @@
+import java.util.Arrays;
+
+/**
+ * Follows goal targets from frame to frame.
+ *
+ * <p>Every track keeps a constant velocity Kalman filter per published value
+ * (xOffset, distance and angle, each with its rate of change). The targets
+ * of a new frame are associated with the predicted tracks by the smallest
+ * normalized innovation within a gate, so a target keeps its id while it is
+ * visible. A track that is not seen is predicted forward for a few frames
+ * before it is dropped, and the rates let the robot extrapolate between
+ * frames.
+ *
+ * <p>Called only from the publish stage of a camera, in frame order. Tracks
+ * are preallocated and nothing is allocated per frame.
+ */
+public class TargetTracker {
+  public static final int kMaxTracks = 16;
+
+  private static final int kValues = 3;
+  // measurement noise (standard deviation) of xOffset [m], distance [m], angle [rad]
+  private static final double[] kMeasurementNoise = {0.02, 0.05, 0.01};
+  // process noise, the acceleration standard deviation of every value per second
+  private static final double[] kProcessNoise = {1.0, 1.0, 0.5};
+  private static final double kInitialRateVariance = 4.0;
+
+  /**
+   * The filter state of one target.
+   */
+  private static final class Track {
+    boolean active;
+    int id;
+    int missed;
+    final double[] value = new double[kValues];
+    final double[] rate = new double[kValues];
+    // symmetric covariance of (value, rate) per value
+    final double[] p00 = new double[kValues];
+    final double[] p01 = new double[kValues];
+    final double[] p11 = new double[kValues];
+
+    void start(int id, double[] measurement) {
+      active = true;
+      this.id = id;
+      missed = 0;
+      for (int i = 0; i < kValues; i++) {
+        value[i] = measurement[i];
+        rate[i] = 0;
+        p00[i] = kMeasurementNoise[i] * kMeasurementNoise[i];
+        p01[i] = 0;
+        p11[i] = kInitialRateVariance;
+      }
+    }
+
+    void predict(double dt) {
+      for (int i = 0; i < kValues; i++) {
+        double q = kProcessNoise[i] * kProcessNoise[i];
+        double dt2 = dt * dt;
+        value[i] += rate[i] * dt;
+        p00[i] += dt * (2 * p01[i] + dt * p11[i]) + q * dt2 * dt2 / 4;
+        p01[i] += dt * p11[i] + q * dt2 * dt / 2;
+        p11[i] += q * dt2;
+      }
+    }
+
+    /**
+     * The squared innovation of a measurement normalized by its variance.
+     */
+    double distance(double[] measurement) {
+      double sum = 0;
+      for (int i = 0; i < kValues; i++) {
+        double innovation = measurement[i] - value[i];
+        sum += innovation * innovation / (p00[i] + kMeasurementNoise[i] * kMeasurementNoise[i]);
+      }
+      return sum;
+    }
+
+    void update(double[] measurement) {
+      for (int i = 0; i < kValues; i++) {
+        double s = p00[i] + kMeasurementNoise[i] * kMeasurementNoise[i];
+        double k0 = p00[i] / s;
+        double k1 = p01[i] / s;
+        double innovation = measurement[i] - value[i];
+        value[i] += k0 * innovation;
+        rate[i] += k1 * innovation;
+        p11[i] -= k1 * p01[i];
+        p00[i] -= k0 * p00[i];
+        p01[i] -= k0 * p01[i];
+      }
+      missed = 0;
+    }
+  }
+
+  private final Track[] tracks = new Track[kMaxTracks];
+  private final boolean[] trackMatched = new boolean[kMaxTracks];
+  private boolean[] targetMatched = new boolean[0];
+  private final double[] measurement = new double[kValues];
+  private long lastFrameTime;
+  private int nextId;
+
+  // the tracks after the last update, ordered by id
+  public int count;
+  public final double[] id = new double[kMaxTracks];
+  public final double[] missed = new double[kMaxTracks];
+  public final double[] xOffset = new double[kMaxTracks];
+  public final double[] distance = new double[kMaxTracks];
+  public final double[] angle = new double[kMaxTracks];
+  public final double[] xOffsetRate = new double[kMaxTracks];
+  public final double[] distanceRate = new double[kMaxTracks];
+  public final double[] angleRate = new double[kMaxTracks];
+
+  public TargetTracker() {
+    for (int i = 0; i < tracks.length; i++) {
+      tracks[i] = new Track();
+    }
+  }
+
+  /**
+   * Advance the tracks to a new frame and associate its targets.
+   * @param result the targets of the frame, newer than the last update
+   * @param config the current pipeline settings
+   */
+  public void update(FrameResult result, PipelineConfig config) {
+    double dt = lastFrameTime == 0 ? 0 : Math.max(0, (result.frameTime - lastFrameTime) / 1e6);
+    lastFrameTime = result.frameTime;
+    for (Track track : tracks) {
+      if (track.active) {
+        track.predict(dt);
+      }
+    }
+
+    if (targetMatched.length < result.count) {
+      targetMatched = new boolean[result.count];
+    }
+    Arrays.fill(trackMatched, false);
+    // a target with a value that cannot be filtered is left out
+    for (int target = 0; target < result.count; target++) {
+      targetMatched[target] = !Double.isFinite(result.xOffset[target])
+          || !Double.isFinite(result.distance[target]) || !Double.isFinite(result.angle[target]);
+    }
+
+    // greedy global association, best pair first
+    while (true) {
+      double best = config.trackGate;
+      int bestTrack = -1;
+      int bestTarget = -1;
+      for (int t = 0; t < tracks.length; t++) {
+        if (!tracks[t].active || trackMatched[t]) {
+          continue;
+        }
+        for (int target = 0; target < result.count; target++) {
+          if (targetMatched[target]) {
+            continue;
+          }
+          double d = tracks[t].distance(measurement(result, target));
+          if (d < best) {
+            best = d;
+            bestTrack = t;
+            bestTarget = target;
+          }
+        }
+      }
+      if (bestTrack < 0) {
+        break;
+      }
+      tracks[bestTrack].update(measurement(result, bestTarget));
+      trackMatched[bestTrack] = true;
+      targetMatched[bestTarget] = true;
+    }
+
+    for (int t = 0; t < tracks.length; t++) {
+      if (tracks[t].active && !trackMatched[t] && ++tracks[t].missed > config.trackMaxMissed) {
+        tracks[t].active = false;
+      }
+    }
+    for (int target = 0; target < result.count; target++) {
+      if (!targetMatched[target]) {
+        Track free = freeTrack();
+        if (free == null) {
+          break;
+        }
+        free.start(nextId++, measurement(result, target));
+      }
+    }
+
+    fillOutput();
+  }
+
+  private double[] measurement(FrameResult result, int target) {
+    measurement[0] = result.xOffset[target];
+    measurement[1] = result.distance[target];
+    measurement[2] = result.angle[target];
+    return measurement;
+  }
+
+  private Track freeTrack() {
+    for (Track track : tracks) {
+      if (!track.active) {
+        return track;
+      }
+    }
+    return null;
+  }
+
+  private void fillOutput() {
+    count = 0;
+    int lastId = -1;
+    // ids only grow, so selecting the next larger id each time orders the output
+    while (true) {
+      Track next = null;
+      for (Track track : tracks) {
+        if (track.active && track.id > lastId && (next == null || track.id < next.id)) {
+          next = track;
+        }
+      }
+      if (next == null) {
+        return;
+      }
+      lastId = next.id;
+      id[count] = next.id;
+      missed[count] = next.missed;
+      xOffset[count] = next.value[0];
+      distance[count] = next.value[1];
+      angle[count] = next.value[2];
+      xOffsetRate[count] = next.rate[0];
+      distanceRate[count] = next.rate[1];
+      angleRate[count] = next.rate[2];
+      count++;
+    }
+  }
+}
@@ -0,0 +1,145 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.opencv.core.Mat;
+
+/**
+ * The blur and HSL threshold of {@link CardinalPipeline} split into
+ * horizontal strips that run in parallel on a fork-join pool.
+ *
+ * <p>Every strip blurs its rows plus the blur radius above and below into
+ * its own scratch image, so its core rows come out exactly as from a blur
+ * of the whole frame. The HLS conversion and inRange of the core rows then
+ * write straight into the shared HLS image and mask, and the mask is traced
+ * once by findContours as before.
+ *
+ * <p>The pools are shared by all pipelines with the same thread count. One
+ * instance per pipeline; the strip tasks and scratch images are reused.
+ */
+public class TiledThreshold {
+  public static final int kMaxThreads = 16;
+
+  // below this many rows per strip the fork costs more than it saves
+  private static final int kMinStripRows = 32;
+
+  private static final Map<Integer, ForkJoinPool> pools = new HashMap<>();
+
+  private final CardinalPipeline pipeline;
+  private Strip[] strips = new Strip[0];
+  private final RecursiveAction all = new RecursiveAction() {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected void compute() {
+      invokeAll(strips);
+    }
+  };
+
+  /**
+   * One strip of rows and its task.
+   */
+  private final class Strip extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    int top;
+    int bottom;
+    Mat input;
+    PipelineConfig config;
+    Mat hls;
+    Mat mask;
+    MatPool.Lease blurred;
+
+    @Override
+    protected void compute() {
+      int halo = halo(config);
+      int haloTop = Math.max(0, top - halo);
+      int haloBottom = Math.min(input.rows(), bottom + halo);
+      blurred = MatPool.getInstance().renew(blurred, haloBottom - haloTop, input.cols(),
+          input.type(), MatPool.Use.BLUR);
+
+      Mat inputRows = input.rowRange(haloTop, haloBottom);
+      Mat blurredCore = blurred.mat().rowRange(top - haloTop, bottom - haloTop);
+      Mat hlsRows = hls.rowRange(top, bottom);
+      Mat maskRows = mask.rowRange(top, bottom);
+      try {
+        pipeline.blur(inputRows, config.blurType, config.blurRadius, config.blurKernelSize,
+            blurred.mat());
+        pipeline.hslThreshold(blurredCore, config.hslLower, config.hslUpper, hlsRows, maskRows);
+      } finally {
+        inputRows.release();
+        blurredCore.release();
+        hlsRows.release();
+        maskRows.release();
+      }
+    }
+  }
+
+  public TiledThreshold(CardinalPipeline pipeline) {
+    this.pipeline = pipeline;
+  }
+
+  /**
+   * Whether an image is tall enough to be split for the configured threads.
+   */
+  public static boolean worthSplitting(Mat input, PipelineConfig config) {
+    return config.thresholdThreads > 1 && input.rows() >= 2 * kMinStripRows;
+  }
+
+  /**
+   * Blur and threshold an image.
+   * @param input the BGR image
+   * @param config the pipeline settings, with more than one threshold thread
+   * @param hls the image in which to store the HLS conversion, the size of input
+   * @param mask the image in which to store the binary mask, the size of input
+   * @throws MatPool.CapExceededException if the native memory cap is reached
+   */
+  public void apply(Mat input, PipelineConfig config, Mat hls, Mat mask) {
+    int count = Math.max(1, Math.min(config.thresholdThreads, input.rows() / kMinStripRows));
+    if (strips.length != count) {
+      release();
+      strips = new Strip[count];
+      for (int i = 0; i < count; i++) {
+        strips[i] = new Strip();
+      }
+    }
+    for (int i = 0; i < count; i++) {
+      Strip strip = strips[i];
+      strip.reinitialize();
+      strip.top = input.rows() * i / count;
+      strip.bottom = input.rows() * (i + 1) / count;
+      strip.input = input;
+      strip.config = config;
+      strip.hls = hls;
+      strip.mask = mask;
+    }
+    all.reinitialize();
+    pool(config.thresholdThreads).invoke(all);
+  }
+
+  /**
+   * The rows beyond its own that the blur of a strip reads.
+   */
+  private static int halo(PipelineConfig config) {
+    if (config.blurType == CardinalPipeline.BlurType.BILATERAL) {
+      // bilateralFilter with d <= 0 uses a radius of 1.5 sigma
+      return (int) Math.ceil(1.5 * config.blurRadius) + 1;
+    }
+    return (int) config.blurKernelSize.height / 2 + 1;
+  }
+
+  private static synchronized ForkJoinPool pool(int threads) {
+    return pools.computeIfAbsent(threads, ForkJoinPool::new);
+  }
+
+  /**
+   * Give back the scratch images.
+   */
+  public void release() {
+    for (Strip strip : strips) {
+      MatPool.getInstance().giveBack(strip.blurred);
+      strip.blurred = null;
+    }
+  }
+}
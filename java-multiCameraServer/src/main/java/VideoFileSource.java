@@ -0,0 +1,46 @@
+import java.io.File;
+
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+/**
+ * Frames decoded from a video file.
+ */
+public class VideoFileSource implements FrameSource {
+  private final File file;
+  private final VideoCapture capture;
+
+  /**
+   * Open a video file.
+   * @throws IllegalArgumentException if the file cannot be opened
+   */
+  public VideoFileSource(File file) {
+    this.file = file;
+    capture = new VideoCapture(file.getPath());
+    if (!capture.isOpened()) {
+      capture.release();
+      throw new IllegalArgumentException("could not open video '" + file + "'");
+    }
+  }
+
+  @Override
+  public long grabFrame(Mat frame) {
+    // the position is the time of the frame read next
+    long frameTime = (long) (capture.get(Videoio.CAP_PROP_POS_MSEC) * 1000);
+    if (!capture.read(frame) || frame.empty()) {
+      return -1;
+    }
+    return frameTime;
+  }
+
+  @Override
+  public String getName() {
+    return file.getPath();
+  }
+
+  @Override
+  public void close() {
+    capture.release();
+  }
+}
@@ -0,0 +1,208 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.wpi.cscore.VideoSource;
+import edu.wpi.first.networktables.NetworkTable;
+
+/**
+ * Runs a vision pipeline on every configured camera.
+ *
+ * <p>Every camera captures on its own thread (see {@link CameraVision}).
+ * Processing workers of all cameras share a fixed pool of threads sized to
+ * the number of cores. A worker is queued on the pool by its camera only
+ * when a frame is waiting for it, and never waits for a frame on a pool
+ * thread, so the pool serves the cameras in the order their frames arrive
+ * instead of letting a slow camera hold threads the others need. A single
+ * publish thread writes all results to NetworkTables.
+ */
+public class VisionEngine {
+  private static final long kMetricsPeriodSeconds = 1;
+  private static final long kReportPeriodSeconds = 5;
+
+  private final NetworkTable rootTable;
+  private final double publishTolerance;
+  private final boolean legacyEntries;
+  private final List<CameraVision> cameras = new ArrayList<>();
+  private final QosScheduler qos;
+
+  private ExecutorService workers;
+  private ScheduledExecutorService reporter;
+  private BlockingQueue<FrameResult> publishQueue;
+  private Thread publisher;
+  private volatile boolean running;
+
+  /**
+   * Create an engine publishing to per-camera subtables of rootTable.
+   * @param publishTolerance the largest change of a result that is not
+   *     published, see {@link ResultPublisher}
+   * @param legacyEntries also publish the separate entries of the old layout
+   * @param latencyBudget the capture to publish latency in milliseconds above
+   *     which the work per frame is reduced, 0 for none, see {@link QosScheduler}
+   */
+  public VisionEngine(NetworkTable rootTable, double publishTolerance, boolean legacyEntries,
+      double latencyBudget) {
+    this.rootTable = rootTable;
+    this.publishTolerance = publishTolerance;
+    this.legacyEntries = legacyEntries;
+    this.qos = new QosScheduler(rootTable, latencyBudget);
+  }
+
+  /**
+   * Add a camera, with a pipeline instance per worker. Results are published to
+   * {@code VisionTarget/<camera name>}; the first camera is also mirrored to
+   * {@code VisionTarget} itself so existing robot code keeps working. Latency
+   * metrics go to {@code VisionTarget/metrics/<camera name>}, the native
+   * memory of all cameras to {@code VisionTarget/metrics/memory}.
+   * @param detector the name of the tape detector, see {@link TapeDetector#create}
+   * @param model the geometry of the camera at its video mode
+   */
+  public CameraVision addCamera(VideoSource camera, PipelineConfig config, int workers,
+      String detector, CameraModel model) {
+    NetworkTable table = rootTable.getSubTable(camera.getName());
+    NetworkTable mirrorTable = cameras.isEmpty() ? rootTable : null;
+    NetworkTable metricsTable = rootTable.getSubTable("metrics").getSubTable(camera.getName());
+    ResultPublisher publisher = new ResultPublisher(table, mirrorTable, publishTolerance,
+        legacyEntries);
+    CameraVision vision = new CameraVision(camera, config, workers, detector, model, table,
+        publisher, metricsTable, qos);
+    cameras.add(vision);
+    qos.addCamera(vision);
+    return vision;
+  }
+
+  /**
+   * Get a camera by name.
+   * @return the camera, or null if there is no camera with that name
+   */
+  public CameraVision getCamera(String name) {
+    for (CameraVision camera : cameras) {
+      if (camera.getName().equals(name)) {
+        return camera;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Start processing all cameras.
+   */
+  public void start() {
+    if (cameras.isEmpty()) {
+      return;
+    }
+    int tasks = 0;
+    for (CameraVision camera : cameras) {
+      tasks += camera.getWorkers();
+    }
+    int threads = Math.min(Runtime.getRuntime().availableProcessors(), tasks);
+    System.out.println("Starting vision engine: " + cameras.size() + " camera(s), " + tasks
+        + " worker(s) on " + threads + " thread(s)");
+
+    running = true;
+    publishQueue = new ArrayBlockingQueue<>(2 * tasks);
+    publisher = new Thread(this::publish, "VisionPublish");
+    publisher.setDaemon(true);
+    publisher.start();
+
+    workers = Executors.newFixedThreadPool(threads, daemonThreads("VisionWorker"));
+    for (CameraVision camera : cameras) {
+      camera.startCapture(workers, publishQueue);
+    }
+
+    reporter = Executors.newSingleThreadScheduledExecutor(daemonThreads("VisionReport"));
+    reporter.scheduleAtFixedRate(this::publishMetrics, kMetricsPeriodSeconds,
+        kMetricsPeriodSeconds, TimeUnit.SECONDS);
+    reporter.scheduleAtFixedRate(this::report, kReportPeriodSeconds, kReportPeriodSeconds,
+        TimeUnit.SECONDS);
+  }
+
+  /**
+   * Stop processing. Capture stops first, then the frames already being
+   * processed are allowed to finish while the publish stage keeps draining
+   * their results, and only then are the native buffers of every camera
+   * released.
+   */
+  public void stop() {
+    if (workers == null) {
+      running = false;
+      return;
+    }
+    reporter.shutdown();
+    try {
+      for (CameraVision camera : cameras) {
+        camera.stopCapture();
+      }
+      workers.shutdown();
+      boolean stopped = workers.awaitTermination(1, TimeUnit.SECONDS);
+      running = false;
+      publisher.join(1000);
+      if (!stopped || publisher.isAlive()) {
+        System.err.println("vision workers did not stop, not releasing buffers");
+        return;
+      }
+    } catch (InterruptedException ex) {
+      running = false;
+      Thread.currentThread().interrupt();
+      return;
+    }
+    for (CameraVision camera : cameras) {
+      camera.release();
+    }
+  }
+
+  /**
+   * The publish stage: writes results to NetworkTables in the order they
+   * were processed and hands them back to their workers. Once stopped, it
+   * still drains the results left in the queue.
+   */
+  private void publish() {
+    while (running || !publishQueue.isEmpty()) {
+      FrameResult result;
+      try {
+        result = publishQueue.poll(100, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException ex) {
+        return;
+      }
+      if (result == null) {
+        continue;
+      }
+      try {
+        result.getCamera().publish(result);
+      } catch (RuntimeException ex) {
+        System.err.println("camera '" + result.getCamera().getName() + "': publish failed: " + ex);
+      } finally {
+        result.recycle();
+      }
+    }
+  }
+
+  private void publishMetrics() {
+    for (CameraVision camera : cameras) {
+      camera.publishMetrics();
+    }
+    MatPool.getInstance().publish(rootTable.getSubTable("metrics").getSubTable("memory"));
+  }
+
+  private void report() {
+    for (CameraVision camera : cameras) {
+      camera.report(kReportPeriodSeconds);
+    }
+  }
+
+  private static ThreadFactory daemonThreads(String prefix) {
+    AtomicInteger count = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+}
@@ -0,0 +1,25 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import org.junit.Test;
+import org.opencv.core.Rect;
+
+public class TargetFinderTest {
+  private static final int kFrameWidth = 320;
+  private static final int kFrameHeight = 240;
+
+  @Test
+  public void trackingWindowHasEqualMarginsAroundCenteredTarget() {
+    // sized so that the window needs no rounding up: 40 + 2 * 20 and 24 + 2 * 20
+    Rect box = new Rect(140, 108, 40, 24);
+    Rect window = TargetFinder.trackingWindow(PipelineConfig.kDefault, box, kFrameWidth,
+        kFrameHeight);
+
+    assertNotNull(window);
+    int margin = PipelineConfig.kDefault.trackingMinMargin;
+    assertEquals(box.x - margin, window.x);
+    assertEquals(box.y - margin, window.y);
+    assertEquals(box.x + box.width + margin, window.x + window.width);
+    assertEquals(box.y + box.height + margin, window.y + window.height);
+  }
+}